@@ -4,28 +4,519 @@ Upon receiving a request, each handler decides either to process the request or
 Refs - https://www.javatpoint.com/chain-of-responsibility-pattern , https://www.geeksforgeeks.org/chain-responsibility-design-pattern/
 */
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+// appender : the sink a handler finally writes its record to.
+interface LogAppender {
+    public void append(int level, String record);
+
+    // records formatted into a reusable buffer; appenders that can consume them without a String copy override this.
+    public default void append(int level, CharSequence record) {
+        append(level, record.toString());
+    }
+}
+
+// synchronous appender : prints on the caller's thread.
+class ConsoleAppender implements LogAppender {
+    public static final ConsoleAppender INSTANCE = new ConsoleAppender();
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder();
+    private char[] chars = new char[0];
+    private CharBuffer charBuffer = CharBuffer.wrap(chars);
+    private ByteBuffer bytes = ByteBuffer.allocate(0);
+
+    @Override
+    public void append(int level, String record) {
+        System.out.println(record);
+    }
+
+    // encodes into buffers owned by the appender and writes raw bytes, so a warmed-up appender allocates nothing.
+    @Override
+    public synchronized void append(int level, CharSequence record) {
+        int length = record.length() + LINE_SEPARATOR.length();
+        if (chars.length < length) {
+            chars = new char[Math.max(length, 2 * chars.length)];
+            charBuffer = CharBuffer.wrap(chars);
+            bytes = ByteBuffer.allocate((int) Math.ceil(chars.length * encoder.maxBytesPerChar()));
+        }
+        for (int i = 0; i < record.length(); i++) {
+            chars[i] = record.charAt(i);
+        }
+        LINE_SEPARATOR.getChars(0, LINE_SEPARATOR.length(), chars, record.length());
+        charBuffer.clear().limit(length);
+        bytes.clear();
+        encoder.reset();
+        encoder.encode(charBuffer, bytes, true);
+        encoder.flush(bytes);
+        System.out.write(bytes.array(), 0, bytes.position());
+    }
+}
+
+// parameterized message : fills a "{}" template into per-thread buffers, so steady-state formatting allocates nothing.
+final class ParameterizedMessage {
+    private static final ThreadLocal<ParameterizedMessage> CURRENT = ThreadLocal.withInitial(ParameterizedMessage::new);
+    private final StringBuilder message = new StringBuilder(256);
+    private final StringBuilder record = new StringBuilder(256);
+    private String template;
+    private int cursor;
+
+    private ParameterizedMessage() {
+    }
+
+    public static ParameterizedMessage begin(String template) {
+        return CURRENT.get().restart(template);
+    }
+
+    // a message whose buffer belongs to the caller, so later begin calls on the same thread cannot overwrite it.
+    static ParameterizedMessage detached() {
+        return new ParameterizedMessage();
+    }
+
+    ParameterizedMessage restart(String template) {
+        this.message.setLength(0);
+        this.template = template;
+        this.cursor = 0;
+        return this;
+    }
+
+    // arguments beyond the last placeholder are ignored.
+    private boolean nextPlaceholder() {
+        int placeholder = template.indexOf("{}", cursor);
+        if (placeholder < 0) {
+            return false;
+        }
+        message.append(template, cursor, placeholder);
+        cursor = placeholder + 2;
+        return true;
+    }
+
+    public ParameterizedMessage with(long arg) {
+        if (nextPlaceholder()) {
+            message.append(arg);
+        }
+        return this;
+    }
+
+    public ParameterizedMessage with(double arg) {
+        if (nextPlaceholder()) {
+            message.append(arg);
+        }
+        return this;
+    }
+
+    public ParameterizedMessage with(Object arg) {
+        if (nextPlaceholder()) {
+            if (arg instanceof CharSequence) {
+                message.append((CharSequence) arg);
+            } else {
+                message.append(arg);
+            }
+        }
+        return this;
+    }
+
+    public StringBuilder end() {
+        message.append(template, cursor, template.length());
+        return message;
+    }
+
+    // a handler's full record, prefix followed by the formatted message, in a second reusable buffer.
+    public static StringBuilder record(String prefix, CharSequence msg) {
+        StringBuilder record = CURRENT.get().record;
+        record.setLength(0);
+        return record.append(prefix).append(msg);
+    }
+}
+
+// asynchronous appender : producers claim slots of a bounded ring with a CAS, one background writer drains them in batches.
+class AsyncRingBufferAppender implements LogAppender {
+    enum OverflowPolicy {
+        BLOCK, DROP_NEWEST, DROP_BELOW_LEVEL
+    }
+
+    private final int mask;
+    private final String[] records;
+    // sequences[i] == position : slot free for producer, position + 1 : slot published for the writer
+    private final AtomicLongArray sequences;
+    private final AtomicLong producerCursor = new AtomicLong();
+    private long consumerCursor;
+    private final OverflowPolicy policy;
+    private final int keepLevel;
+    private final int batchSize;
+    private final PrintStream out;
+    private final AtomicLong queuedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    // producers inside append; the writer keeps draining until they have all left after running flips.
+    private final AtomicInteger activeProducers = new AtomicInteger();
+    private final Thread writer;
+    private final Thread shutdownHook;
+    private volatile boolean running = true;
+
+    public AsyncRingBufferAppender(int capacity, int batchSize, OverflowPolicy policy, int keepLevel) {
+        this(capacity, batchSize, policy, keepLevel, System.out);
+    }
+
+    public AsyncRingBufferAppender(int capacity, int batchSize, OverflowPolicy policy, int keepLevel, PrintStream out) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.mask = capacity - 1;
+        this.records = new String[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        this.policy = policy;
+        this.keepLevel = keepLevel;
+        this.batchSize = batchSize;
+        this.out = out;
+        this.writer = new Thread(this::drainLoop, "async-log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        this.shutdownHook = new Thread(this::shutdown);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public void append(int level, String record) {
+        activeProducers.incrementAndGet();
+        try {
+            while (running) {
+                if (tryPublish(record)) {
+                    queuedCount.incrementAndGet();
+                    return;
+                }
+                if (policy == OverflowPolicy.DROP_NEWEST
+                        || (policy == OverflowPolicy.DROP_BELOW_LEVEL && level < keepLevel)) {
+                    break;
+                }
+                LockSupport.parkNanos(1_000);
+            }
+            droppedCount.incrementAndGet();
+        } finally {
+            activeProducers.decrementAndGet();
+        }
+    }
+
+    private boolean tryPublish(String record) {
+        while (true) {
+            long position = producerCursor.get();
+            int index = (int) position & mask;
+            long diff = sequences.get(index) - position;
+            if (diff < 0) {
+                return false;
+            }
+            if (diff == 0 && producerCursor.compareAndSet(position, position + 1)) {
+                records[index] = record;
+                sequences.lazySet(index, position + 1);
+                return true;
+            }
+        }
+    }
+
+    private void drainLoop() {
+        StringBuilder batch = new StringBuilder();
+        while (running || activeProducers.get() > 0 || consumerCursor != producerCursor.get()) {
+            int drained = 0;
+            while (drained < batchSize) {
+                int index = (int) consumerCursor & mask;
+                if (sequences.get(index) != consumerCursor + 1) {
+                    break;
+                }
+                batch.append(records[index]).append(System.lineSeparator());
+                records[index] = null;
+                sequences.lazySet(index, consumerCursor + mask + 1);
+                consumerCursor++;
+                drained++;
+            }
+            if (drained > 0) {
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+            } else {
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    // stops accepting records and blocks until every queued record has been written.
+    public void shutdown() {
+        running = false;
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down, this call may be the hook itself.
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getQueuedCount() {
+        return queuedCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+}
+
+// log template : a message pattern registered once up front, binary handlers only write its id.
+final class LogTemplate {
+    private static final List<LogTemplate> REGISTRY = new ArrayList<>();
+    private final int id;
+    private final String pattern;
+
+    private LogTemplate(int id, String pattern) {
+        this.id = id;
+        this.pattern = pattern;
+    }
+
+    public static synchronized LogTemplate register(String pattern) {
+        LogTemplate template = new LogTemplate(REGISTRY.size(), pattern);
+        REGISTRY.add(template);
+        return template;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    public String getPattern() {
+        return this.pattern;
+    }
+}
+
+// templated record : a template and its raw argument values in a per-thread holder, rendered to text only if a text handler needs it.
+final class TemplatedRecord {
+    static final byte LONG_ARG = 1;
+    static final byte DOUBLE_ARG = 2;
+    static final byte TEXT_ARG = 3;
+    private static final int MAX_ARGS = 8;
+    private static final ThreadLocal<TemplatedRecord> CURRENT = ThreadLocal.withInitial(TemplatedRecord::new);
+    private final byte[] argKinds = new byte[MAX_ARGS];
+    private final long[] argBits = new long[MAX_ARGS];
+    private final Object[] argObjects = new Object[MAX_ARGS];
+    private final ParameterizedMessage message = ParameterizedMessage.detached();
+    private LogTemplate template;
+    private int argCount;
+    private StringBuilder rendered;
+
+    private TemplatedRecord() {
+    }
+
+    public static TemplatedRecord of(LogTemplate template) {
+        TemplatedRecord current = CURRENT.get();
+        Arrays.fill(current.argObjects, 0, current.argCount, null);
+        current.template = template;
+        current.argCount = 0;
+        current.rendered = null;
+        return current;
+    }
+
+    private int nextSlot(byte kind) {
+        if (argCount == MAX_ARGS) {
+            throw new IllegalStateException("at most " + MAX_ARGS + " arguments per record");
+        }
+        rendered = null;
+        argKinds[argCount] = kind;
+        return argCount++;
+    }
+
+    public TemplatedRecord with(long arg) {
+        argBits[nextSlot(LONG_ARG)] = arg;
+        return this;
+    }
+
+    public TemplatedRecord with(double arg) {
+        argBits[nextSlot(DOUBLE_ARG)] = Double.doubleToRawLongBits(arg);
+        return this;
+    }
+
+    public TemplatedRecord with(Object arg) {
+        argObjects[nextSlot(TEXT_ARG)] = arg;
+        return this;
+    }
+
+    public LogTemplate getTemplate() {
+        return this.template;
+    }
+
+    public int getArgCount() {
+        return this.argCount;
+    }
+
+    public byte getArgKind(int index) {
+        return argKinds[index];
+    }
+
+    public long getLongArg(int index) {
+        return argBits[index];
+    }
+
+    public double getDoubleArg(int index) {
+        return Double.longBitsToDouble(argBits[index]);
+    }
+
+    public Object getTextArg(int index) {
+        return argObjects[index];
+    }
+
+    // rendered at most once per record, however many text handlers print it, into a buffer the record owns.
+    public StringBuilder render() {
+        if (rendered == null) {
+            message.restart(template.getPattern());
+            for (int i = 0; i < argCount; i++) {
+                switch (argKinds[i]) {
+                    case LONG_ARG:
+                        message.with(getLongArg(i));
+                        break;
+                    case DOUBLE_ARG:
+                        message.with(getDoubleArg(i));
+                        break;
+                    default:
+                        message.with(getTextArg(i));
+                }
+            }
+            rendered = message.end();
+        }
+        return rendered;
+    }
+}
+
 abstract class Logger {
     public static final int INFO_LEVEL = 1;
     public static final int ERROR_LEVEL = 2;
     public static final int DEBUG_LEVEL = 3;
     protected int level;
     protected Logger nextLevelLogger;
+    protected LogAppender appender = ConsoleAppender.INSTANCE;
 
     public void setNextLevelLogger(Logger nextLevelLogger) {
         this.nextLevelLogger = nextLevelLogger;
     }
 
+    public void setAppender(LogAppender appender) {
+        this.appender = appender;
+    }
+
     public void logMessage(int level, String msg) {
         if (level >= this.level) {
-            logMessageForCurrentLevel(msg);
+            logMessageForCurrentLevel(level, msg);
         }
         if (nextLevelLogger != null) {
             nextLevelLogger.logMessage(level, msg);
         }
     }
 
+    public boolean isEnabled(int level) {
+        for (Logger logger = this; logger != null; logger = logger.nextLevelLogger) {
+            if (level >= logger.level) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void logMessage(int level, String template, Object arg) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg).end());
+        }
+    }
+
+    public void logMessage(int level, String template, long arg) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg).end());
+        }
+    }
+
+    public void logMessage(int level, String template, double arg) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg).end());
+        }
+    }
+
+    public void logMessage(int level, String template, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg1).with(arg2).end());
+        }
+    }
+
+    public void logMessage(int level, String template, Object arg1, long arg2) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg1).with(arg2).end());
+        }
+    }
+
+    public void logMessage(int level, String template, long arg1, Object arg2) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg1).with(arg2).end());
+        }
+    }
+
+    public void logMessage(int level, String template, long arg1, long arg2) {
+        if (isEnabled(level)) {
+            logFormatted(level, ParameterizedMessage.begin(template).with(arg1).with(arg2).end());
+        }
+    }
+
+    public void logMessage(int level, TemplatedRecord record) {
+        if (isEnabled(level)) {
+            logTemplated(level, record);
+        }
+    }
+
+    protected void logTemplated(int level, TemplatedRecord record) {
+        if (level >= this.level) {
+            logTemplatedForCurrentLevel(level, record);
+        }
+        if (nextLevelLogger != null) {
+            nextLevelLogger.logTemplated(level, record);
+        }
+    }
+
+    protected void logFormatted(int level, CharSequence msg) {
+        if (level >= this.level) {
+            logFormattedForCurrentLevel(level, msg);
+        }
+        if (nextLevelLogger != null) {
+            nextLevelLogger.logFormatted(level, msg);
+        }
+    }
+
     public abstract void logMessageForCurrentLevel(String msg);
 
+    // handlers that can write a reusable buffer straight to their sink override this.
+    public void logFormattedForCurrentLevel(CharSequence msg) {
+        logMessageForCurrentLevel(msg.toString());
+    }
+
+    // the chain passes the message's own level; handlers that record it, rather than their threshold, override these,
+    // so an appender's level-based overflow policy judges the message and not the handler that printed it.
+    public void logMessageForCurrentLevel(int level, String msg) {
+        logMessageForCurrentLevel(msg);
+    }
+
+    public void logFormattedForCurrentLevel(int level, CharSequence msg) {
+        logFormattedForCurrentLevel(msg);
+    }
+
+    // text handlers render the record, binary handlers override this to write the raw values instead.
+    public void logTemplatedForCurrentLevel(int level, TemplatedRecord record) {
+        logFormattedForCurrentLevel(level, record.render());
+    }
+
 }
 
 class InfoLogger extends Logger {
@@ -35,7 +526,22 @@ class InfoLogger extends Logger {
 
     @Override
     public void logMessageForCurrentLevel(String msg) {
-        System.out.println("LOGGER INFO: " + msg);
+        logMessageForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(CharSequence msg) {
+        logFormattedForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logMessageForCurrentLevel(int level, String msg) {
+        appender.append(level, "LOGGER INFO: " + msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(int level, CharSequence msg) {
+        appender.append(level, ParameterizedMessage.record("LOGGER INFO: ", msg));
     }
 }
 
@@ -46,7 +552,22 @@ class ErrorLogger extends Logger {
 
     @Override
     public void logMessageForCurrentLevel(String msg) {
-        System.out.println("LOGGER ERROR: " + msg);
+        logMessageForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(CharSequence msg) {
+        logFormattedForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logMessageForCurrentLevel(int level, String msg) {
+        appender.append(level, "LOGGER ERROR: " + msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(int level, CharSequence msg) {
+        appender.append(level, ParameterizedMessage.record("LOGGER ERROR: ", msg));
     }
 }
 
@@ -57,25 +578,488 @@ class DebugLogger extends Logger {
 
     @Override
     public void logMessageForCurrentLevel(String msg) {
-        System.out.println("LOGGER DEBUG: " + msg);
+        logMessageForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(CharSequence msg) {
+        logFormattedForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logMessageForCurrentLevel(int level, String msg) {
+        appender.append(level, "LOGGER DEBUG: " + msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(int level, CharSequence msg) {
+        appender.append(level, ParameterizedMessage.record("LOGGER DEBUG: ", msg));
+    }
+}
+
+// durable handler : appends length-prefixed UTF-8 records straight into a memory-mapped segment and rolls to a new one when it fills.
+class MappedFileLogger extends Logger implements Closeable {
+    private static final byte[] PREFIX = "LOGGER FILE: ".getBytes(StandardCharsets.UTF_8);
+    private final Path directory;
+    private final String segmentPrefix;
+    private final int segmentSize;
+    // a String with an unpaired surrogate is still loggable, the broken character is written as '?'.
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+
+    public MappedFileLogger(int level, Path directory, String segmentPrefix, int segmentSize) throws IOException {
+        this.level = level;
+        this.directory = directory;
+        this.segmentPrefix = segmentPrefix;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        this.segmentIndex = lastSegmentIndex(directory, segmentPrefix);
+        rollSegment();
+    }
+
+    static Path segmentPath(Path directory, String segmentPrefix, int segmentIndex) {
+        return directory.resolve(String.format("%s-%05d.log", segmentPrefix, segmentIndex));
+    }
+
+    // segments left by an earlier run are kept, a restarted logger continues after the highest one; -1 if there are none.
+    static int lastSegmentIndex(Path directory, String segmentPrefix) throws IOException {
+        int last = -1;
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(directory, segmentPrefix + "-*.log")) {
+            for (Path path : segments) {
+                String name = path.getFileName().toString();
+                String digits = name.substring(segmentPrefix.length() + 1, name.length() - ".log".length());
+                try {
+                    last = Math.max(last, Integer.parseInt(digits));
+                } catch (NumberFormatException e) {
+                    // not a segment of ours.
+                }
+            }
+        }
+        return last;
+    }
+
+    private void rollSegment() throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        segmentIndex++;
+        try (FileChannel channel = FileChannel.open(segmentPath(directory, segmentPrefix, segmentIndex),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    @Override
+    public synchronized void logMessageForCurrentLevel(String msg) {
+        try {
+            if (!tryEncode(msg)) {
+                rollSegment();
+                if (!tryEncode(msg)) {
+                    throw new IllegalArgumentException("record does not fit in a segment of " + segmentSize + " bytes");
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the length is written last, so a tailing reader never sees a half-written record.
+    private boolean tryEncode(String msg) {
+        int start = segment.position();
+        if (segment.remaining() < Integer.BYTES + PREFIX.length) {
+            return false;
+        }
+        segment.position(start + Integer.BYTES);
+        segment.put(PREFIX);
+        encoder.reset();
+        CoderResult result = encoder.encode(CharBuffer.wrap(msg), segment, true);
+        if (result.isUnderflow()) {
+            result = encoder.flush(segment);
+        }
+        if (result.isOverflow()) {
+            segment.position(start);
+            return false;
+        }
+        if (result.isError()) {
+            segment.position(start);
+            throw new IllegalArgumentException("record cannot be encoded as UTF-8: " + result);
+        }
+        segment.putInt(start, segment.position() - start - Integer.BYTES);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        segment.force();
+    }
+}
+
+// tailing reader : follows the segments written by MappedFileLogger, returns null once it has caught up with the writer.
+class MappedSegmentReader {
+    private final Path directory;
+    private final String segmentPrefix;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private MappedByteBuffer segment;
+    private int segmentIndex = -1;
+
+    public MappedSegmentReader(Path directory, String segmentPrefix) throws IOException {
+        this.directory = directory;
+        this.segmentPrefix = segmentPrefix;
+    }
+
+    // null while the segment does not exist yet, or exists but the writer has not sized and mapped it yet.
+    private MappedByteBuffer mapSegment(int index) throws IOException {
+        Path path = MappedFileLogger.segmentPath(directory, segmentPrefix, index);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            return size == 0 ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private int lengthAtPosition() {
+        return segment != null && segment.remaining() >= Integer.BYTES ? segment.getInt(segment.position()) : 0;
+    }
+
+    public String poll() throws IOException {
+        while (true) {
+            int length = lengthAtPosition();
+            if (length > 0) {
+                segment.position(segment.position() + Integer.BYTES);
+                ByteBuffer record = segment.slice();
+                record.limit(length);
+                segment.position(segment.position() + length);
+                return decoder.decode(record).toString();
+            }
+            MappedByteBuffer next = mapSegment(segmentIndex + 1);
+            if (next == null) {
+                return null;
+            }
+            // the writer may have appended to this segment before it rolled, finish it before moving on.
+            if (lengthAtPosition() > 0) {
+                continue;
+            }
+            segment = next;
+            segmentIndex++;
+        }
+    }
+}
+
+// binary handler : writes template id, level, timestamp delta and raw argument values, BinaryLogDecoder renders them to text later.
+class BinaryLogger extends Logger implements Closeable {
+    static final byte TEMPLATE_RECORD = 1;
+    static final byte EVENT_RECORD = 2;
+    static final byte TEXT_RECORD = 3;
+    private static final int MAX_VARLONG_BYTES = 10;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final BitSet definedTemplates = new BitSet();
+    private long lastTimestamp;
+
+    public BinaryLogger(int level, WritableByteChannel channel, int bufferSize) {
+        this.level = level;
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(bufferSize);
+    }
+
+    @Override
+    public void logMessageForCurrentLevel(String msg) {
+        logMessageForCurrentLevel(level, msg);
+    }
+
+    @Override
+    public void logFormattedForCurrentLevel(int level, CharSequence msg) {
+        logMessageForCurrentLevel(level, msg.toString());
+    }
+
+    // plain string messages have no template, they are kept as UTF-8 text records tagged with the message's level.
+    @Override
+    public synchronized void logMessageForCurrentLevel(int level, String msg) {
+        byte[] text = msg.getBytes(StandardCharsets.UTF_8);
+        reserve(2 + 2 * MAX_VARLONG_BYTES + text.length);
+        buffer.put(TEXT_RECORD);
+        buffer.put((byte) level);
+        putTimestamp();
+        putVarLong(text.length);
+        buffer.put(text);
+    }
+
+    @Override
+    public synchronized void logTemplatedForCurrentLevel(int level, TemplatedRecord record) {
+        LogTemplate template = record.getTemplate();
+        if (!definedTemplates.get(template.getId())) {
+            byte[] pattern = template.getPattern().getBytes(StandardCharsets.UTF_8);
+            reserve(1 + 2 * MAX_VARLONG_BYTES + pattern.length);
+            buffer.put(TEMPLATE_RECORD);
+            putVarLong(template.getId());
+            putVarLong(pattern.length);
+            buffer.put(pattern);
+            definedTemplates.set(template.getId());
+        }
+        reserve(3 + 2 * MAX_VARLONG_BYTES);
+        buffer.put(EVENT_RECORD);
+        putVarLong(template.getId());
+        buffer.put((byte) level);
+        putTimestamp();
+        buffer.put((byte) record.getArgCount());
+        for (int i = 0; i < record.getArgCount(); i++) {
+            byte kind = record.getArgKind(i);
+            if (kind == TemplatedRecord.LONG_ARG) {
+                reserve(1 + MAX_VARLONG_BYTES);
+                buffer.put(kind);
+                putVarLong(zigZag(record.getLongArg(i)));
+            } else if (kind == TemplatedRecord.DOUBLE_ARG) {
+                reserve(1 + Long.BYTES);
+                buffer.put(kind);
+                buffer.putLong(record.getLongArg(i));
+            } else {
+                byte[] text = String.valueOf(record.getTextArg(i)).getBytes(StandardCharsets.UTF_8);
+                reserve(1 + MAX_VARLONG_BYTES + text.length);
+                buffer.put(kind);
+                putVarLong(text.length);
+                buffer.put(text);
+            }
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void putTimestamp() {
+        long now = System.currentTimeMillis();
+        putVarLong(zigZag(now - lastTimestamp));
+        lastTimestamp = now;
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void reserve(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+            if (buffer.remaining() < bytes) {
+                throw new IllegalArgumentException("record of " + bytes + " bytes does not fit in the buffer");
+            }
+        }
+    }
+
+    public synchronized void flush() {
+        try {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
+
+// offline decoder : renders a binary log written by BinaryLogger back to text, usage: java BinaryLogDecoder <file>
+class BinaryLogDecoder {
+    public static void decode(InputStream in, PrintStream out) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        Map<Long, String> patterns = new HashMap<>();
+        long timestamp = 0;
+        int tag;
+        while ((tag = data.read()) != -1) {
+            if (tag == BinaryLogger.TEMPLATE_RECORD) {
+                long id = readVarLong(data);
+                patterns.put(id, readText(data));
+            } else if (tag == BinaryLogger.EVENT_RECORD) {
+                String pattern = patterns.get(readVarLong(data));
+                int level = data.readByte();
+                timestamp += unZigZag(readVarLong(data));
+                ParameterizedMessage message = ParameterizedMessage.begin(pattern);
+                int argCount = data.readUnsignedByte();
+                for (int i = 0; i < argCount; i++) {
+                    byte kind = data.readByte();
+                    if (kind == TemplatedRecord.LONG_ARG) {
+                        message.with(unZigZag(readVarLong(data)));
+                    } else if (kind == TemplatedRecord.DOUBLE_ARG) {
+                        message.with(Double.longBitsToDouble(data.readLong()));
+                    } else {
+                        message.with(readText(data));
+                    }
+                }
+                out.println(Instant.ofEpochMilli(timestamp) + " LEVEL " + level + ": " + message.end());
+            } else if (tag == BinaryLogger.TEXT_RECORD) {
+                int level = data.readByte();
+                timestamp += unZigZag(readVarLong(data));
+                out.println(Instant.ofEpochMilli(timestamp) + " LEVEL " + level + ": " + readText(data));
+            } else {
+                throw new IOException("unknown record tag: " + tag);
+            }
+        }
+    }
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = data.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static String readText(DataInputStream data) throws IOException {
+        byte[] text = new byte[(int) readVarLong(data)];
+        data.readFully(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(args[0]))) {
+            decode(in, System.out);
+        }
+    }
+}
+
+// compiled chain : flattens an assembled chain into a per-level handler table, so dispatch is one array lookup instead of a recursive walk.
+class CompiledLoggerChain {
+    private static final Logger[] NO_HANDLERS = new Logger[0];
+    private final Logger[][] handlersByLevel;
+
+    private CompiledLoggerChain(Logger[][] handlersByLevel) {
+        this.handlersByLevel = handlersByLevel;
+    }
+
+    public static CompiledLoggerChain compile(Logger head) {
+        List<Logger> chain = new ArrayList<>();
+        int maxLevel = 0;
+        for (Logger logger = head; logger != null; logger = logger.nextLevelLogger) {
+            chain.add(logger);
+            maxLevel = Math.max(maxLevel, logger.level);
+        }
+        Logger[][] handlersByLevel = new Logger[maxLevel + 1][];
+        for (int level = 0; level <= maxLevel; level++) {
+            List<Logger> handlers = new ArrayList<>();
+            for (Logger logger : chain) {
+                if (level >= logger.level) {
+                    handlers.add(logger);
+                }
+            }
+            handlersByLevel[level] = handlers.isEmpty() ? NO_HANDLERS : handlers.toArray(NO_HANDLERS);
+        }
+        return new CompiledLoggerChain(handlersByLevel);
+    }
+
+    private Logger[] handlersFor(int level) {
+        if (level < 0) {
+            return NO_HANDLERS;
+        }
+        return handlersByLevel[Math.min(level, handlersByLevel.length - 1)];
+    }
+
+    public boolean isEnabled(int level) {
+        return handlersFor(level).length > 0;
+    }
+
+    public void logMessage(int level, String msg) {
+        for (Logger handler : handlersFor(level)) {
+            handler.logMessageForCurrentLevel(level, msg);
+        }
+    }
+
+    // the message is only built when at least one handler will print it.
+    public void logMessage(int level, Supplier<String> msgSupplier) {
+        Logger[] handlers = handlersFor(level);
+        if (handlers.length == 0) {
+            return;
+        }
+        String msg = msgSupplier.get();
+        for (Logger handler : handlers) {
+            handler.logMessageForCurrentLevel(level, msg);
+        }
     }
 }
 
 public class ChainOfResponsibilityDemo {
     private static Logger doLoggerChaining() {
+        return doLoggerChaining(ConsoleAppender.INSTANCE);
+    }
+
+    private static Logger doLoggerChaining(LogAppender appender) {
         Logger infoLogger = new InfoLogger(Logger.INFO_LEVEL);
+        infoLogger.setAppender(appender);
         Logger errorLogger = new ErrorLogger(Logger.ERROR_LEVEL);
+        errorLogger.setAppender(appender);
         infoLogger.setNextLevelLogger(errorLogger);
         Logger debugLogger = new DebugLogger(Logger.DEBUG_LEVEL);
+        debugLogger.setAppender(appender);
         errorLogger.setNextLevelLogger(debugLogger);
         return infoLogger;
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         Logger logger = doLoggerChaining();
         logger.logMessage(1, "Information Given");
         logger.logMessage(2, "Error Given");
         logger.logMessage(3, "Debug info Given");
+
+        logger.logMessage(2, "Error code {} raised by {}", 503, "payment-service");
+
+        CompiledLoggerChain compiledChain = CompiledLoggerChain.compile(logger);
+        compiledChain.logMessage(2, "Error Given through the compiled chain");
+        compiledChain.logMessage(0, () -> "Never built, no handler is enabled for level " + 0);
+
+        Path logDirectory = Files.createTempDirectory("chain-logs");
+        MappedFileLogger fileLogger = new MappedFileLogger(Logger.ERROR_LEVEL, logDirectory, "chain", 4096);
+        fileLogger.setNextLevelLogger(doLoggerChaining());
+        fileLogger.logMessage(1, "Information Given, not durable");
+        fileLogger.logMessage(2, "Error Given, durable");
+        fileLogger.close();
+        MappedSegmentReader segmentReader = new MappedSegmentReader(logDirectory, "chain");
+        for (String record = segmentReader.poll(); record != null; record = segmentReader.poll()) {
+            System.out.println("Read back from segment: " + record);
+        }
+
+        Path binaryLog = Files.createTempFile("chain", ".binlog");
+        LogTemplate requestServed = LogTemplate.register("Request {} served in {} ms");
+        try (BinaryLogger binaryLogger = new BinaryLogger(Logger.DEBUG_LEVEL,
+                FileChannel.open(binaryLog, StandardOpenOption.WRITE), 64 * 1024)) {
+            for (int i = 1; i <= 3; i++) {
+                binaryLogger.logMessage(3, TemplatedRecord.of(requestServed).with(i).with(1.5 * i));
+            }
+        }
+        try (InputStream in = Files.newInputStream(binaryLog)) {
+            BinaryLogDecoder.decode(in, System.out);
+        }
+
+        AsyncRingBufferAppender asyncAppender = new AsyncRingBufferAppender(1024, 64,
+                AsyncRingBufferAppender.OverflowPolicy.DROP_BELOW_LEVEL, Logger.ERROR_LEVEL);
+        Logger asyncLogger = doLoggerChaining(asyncAppender);
+        asyncLogger.logMessage(1, "Information Given asynchronously");
+        asyncLogger.logMessage(2, "Error Given asynchronously");
+        asyncLogger.logMessage(3, "Debug info Given asynchronously");
+        asyncAppender.shutdown();
+        System.out.println("Async records queued: " + asyncAppender.getQueuedCount() + ", dropped: "
+                + asyncAppender.getDroppedCount());
     }
 }
 
@@ -85,4 +1069,7 @@ Steps to create chain of responsibility class ->
 2. This can be an interface which will primarily receive the request and dispatches the request to a chain of handlers.
 3. One by one create concrete handler subclasses and implement their handling methods. Each handler should process the request and pass the request along the chain.
 4. The client may either assemble chains on its own or receive pre-built chains from other objects.
+5. Handlers write through an appender, so the client can swap the synchronous console appender for an asynchronous one without touching the chain.
+6. Once the chain is assembled it can be compiled into a per-level handler table, so the client dispatches with a single lookup.
+7. Handlers that do not need text can take the raw templated record instead, leaving rendering to an offline decoder.
 */
\ No newline at end of file
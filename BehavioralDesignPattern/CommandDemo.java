@@ -4,6 +4,18 @@ Invoker object looks for the appropriate object which can handle this command an
 Refs - https://www.digitalocean.com/community/tutorials/command-design-pattern , https://www.geeksforgeeks.org/command-pattern/
 */
 
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.zip.*;
+
 // receiver interface
 interface FileService {
     public void openFile();
@@ -11,6 +23,11 @@ interface FileService {
     public void closeFile();
 
     public void writeFile();
+
+    // receivers that can write real bytes override this, the others just record a write.
+    public default void writeFile(ByteBuffer... payload) {
+        writeFile();
+    }
 }
 
 // concrete receiver class
@@ -49,19 +66,146 @@ class WindowsFileService implements FileService {
     }
 }
 
+// concrete receiver class : a real file behind a FileChannel, written with gathering writes or through a mapped region.
+class ChannelFileService implements FileService {
+    enum WriteMode {
+        CHANNEL, MAPPED
+    }
+
+    private static final int MAPPED_REGION_BYTES = 1 << 20;
+    private final Path path;
+    private final WriteMode writeMode;
+    private FileChannel channel;
+    // MAPPED mode maps a region ahead of the write position once and fills it across writes, the file is trimmed on close.
+    private MappedByteBuffer region;
+    // set once a region has been mapped: the file is then padded past its content, and the channel position marks the
+    // end of the content even after the region itself has been dropped.
+    private boolean padded;
+
+    public ChannelFileService(Path path, WriteMode writeMode) {
+        this.path = path;
+        this.writeMode = writeMode;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    @Override
+    public void openFile() {
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void closeFile() {
+        try {
+            if (padded) {
+                region = null;
+                padded = false;
+                channel.truncate(channel.position());
+            }
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // nothing to write without a payload.
+    @Override
+    public void writeFile() {
+    }
+
+    @Override
+    public void writeFile(ByteBuffer... payload) {
+        try {
+            if (writeMode == WriteMode.MAPPED) {
+                long size = 0;
+                for (ByteBuffer buffer : payload) {
+                    size += buffer.remaining();
+                }
+                long position = channel.position();
+                if (region == null || region.remaining() < size) {
+                    region = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(size, MAPPED_REGION_BYTES));
+                    padded = true;
+                }
+                for (ByteBuffer buffer : payload) {
+                    region.put(buffer.duplicate());
+                }
+                channel.position(position + size);
+            } else {
+                // the caller's buffers keep their positions, so a command can write the same payload again.
+                ByteBuffer[] views = new ByteBuffer[payload.length];
+                for (int i = 0; i < payload.length; i++) {
+                    views[i] = payload[i].duplicate();
+                }
+                while (hasRemaining(views)) {
+                    channel.write(views);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] payload) {
+        for (ByteBuffer buffer : payload) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // copies the whole file into the target's current position, the kernel moves the bytes without a heap copy.
+    public void transferTo(ChannelFileService target) {
+        try {
+            // a mapped file is longer than its content until it is closed, the write position marks the end.
+            long size = padded ? channel.position() : channel.size();
+            for (long position = 0; position < size;) {
+                long transferred = channel.transferTo(position, size - position, target.channel);
+                if (transferred == 0) {
+                    // the source shrank underneath the copy.
+                    break;
+                }
+                position += transferred;
+            }
+            // the target's position moved past its mapped region, its next write maps afresh.
+            target.region = null;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
+
 // command interface
 interface Command {
     public void execute();
 }
 
+// command acting on a single file service, the service is the key that keeps its commands in order.
+interface FileCommand extends Command {
+    public FileService getFileService();
+}
+
 // concrete command class
-class FileOpenCommand implements Command {
+class FileOpenCommand implements FileCommand {
     private FileService fileService;
 
     public FileOpenCommand(FileService fileService) {
         this.fileService = fileService;
     }
 
+    @Override
+    public FileService getFileService() {
+        return this.fileService;
+    }
+
     @Override
     public void execute() {
         this.fileService.openFile();
@@ -69,13 +213,18 @@ class FileOpenCommand implements Command {
 }
 
 // concrete command class
-class FileCloseCommand implements Command {
+class FileCloseCommand implements FileCommand {
     private FileService fileService;
 
     public FileCloseCommand(FileService fileService) {
         this.fileService = fileService;
     }
 
+    @Override
+    public FileService getFileService() {
+        return this.fileService;
+    }
+
     @Override
     public void execute() {
         this.fileService.closeFile();
@@ -83,35 +232,777 @@ class FileCloseCommand implements Command {
 }
 
 // concrete command class
-class FileWriteCommand implements Command {
+class FileWriteCommand implements FileCommand {
     private FileService fileService;
+    private ByteBuffer[] payload;
 
-    public FileWriteCommand(FileService fileService) {
+    public FileWriteCommand(FileService fileService, ByteBuffer... payload) {
         this.fileService = fileService;
+        this.payload = payload;
+    }
+
+    @Override
+    public FileService getFileService() {
+        return this.fileService;
+    }
+
+    public ByteBuffer[] getPayload() {
+        return this.payload;
     }
 
     @Override
     public void execute() {
-        this.fileService.writeFile();
+        if (payload.length == 0) {
+            this.fileService.writeFile();
+        } else {
+            this.fileService.writeFile(payload);
+        }
+    }
+
+    // a run of consecutive writes against one file service, merged into a single gathering write.
+    public static Command merge(List<FileWriteCommand> writes) {
+        List<ByteBuffer> payload = new ArrayList<>();
+        for (FileWriteCommand write : writes) {
+            payload.addAll(Arrays.asList(write.getPayload()));
+        }
+        return new FileWriteCommand(writes.get(0).getFileService(), payload.toArray(new ByteBuffer[0]));
+    }
+}
+
+// concrete command class : copies one file into another, ordered with the commands of its source file.
+class FileCopyCommand implements FileCommand {
+    private ChannelFileService source;
+    private ChannelFileService target;
+
+    public FileCopyCommand(ChannelFileService source, ChannelFileService target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    @Override
+    public FileService getFileService() {
+        return this.source;
+    }
+
+    @Override
+    public void execute() {
+        this.source.transferTo(this.target);
+    }
+}
+
+// concrete command class : decorates a command with a scheduling priority and an optional deadline.
+class PrioritizedCommand implements Command {
+    public static final int BULK_PRIORITY = 0;
+    public static final int INTERACTIVE_PRIORITY = 10;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private Command command;
+    private int priority;
+    private long deadlineNanos;
+
+    public PrioritizedCommand(Command command, int priority) {
+        this.command = command;
+        this.priority = priority;
+        this.deadlineNanos = NO_DEADLINE;
+    }
+
+    public PrioritizedCommand(Command command, int priority, long timeoutMillis) {
+        this.command = command;
+        this.priority = priority;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    public int getPriority() {
+        return this.priority;
+    }
+
+    public boolean isExpired(long nowNanos) {
+        return deadlineNanos != NO_DEADLINE && nowNanos - deadlineNanos > 0;
+    }
+
+    @Override
+    public void execute() {
+        this.command.execute();
     }
 }
 
 // invoker
 class FileInvoker {
     private Command command;
+    private CommandJournal journal;
 
     public FileInvoker(Command command) {
         this.command = command;
     }
 
+    public FileInvoker(Command command, CommandJournal journal) {
+        this.command = command;
+        this.journal = journal;
+    }
+
     public void execute() {
+        if (this.journal != null) {
+            this.journal.append(this.command);
+        }
         this.command.execute();
     }
 }
 
+// write-ahead journal : commands are appended before they run, a flusher thread makes each group of them durable with one force().
+class CommandJournal implements Closeable {
+    private static final byte REGISTER_ENTRY = 0;
+    private static final byte OPEN_ENTRY = 1;
+    private static final byte WRITE_ENTRY = 2;
+    private static final byte CLOSE_ENTRY = 3;
+    private static final int FRAME_HEADER_BYTES = 2 * Integer.BYTES;
+    private final FileChannel channel;
+    private final long groupCommitNanos;
+    private final Map<String, Integer> serviceIdsByName = new HashMap<>();
+    private final Map<FileService, Integer> serviceIds = new IdentityHashMap<>();
+    private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    private final DataOutputStream pendingOut = new DataOutputStream(pending);
+    private long appendedSequence;
+    private long durableSequence;
+    // set once a write or force fails; the journal stops and every waiting and later appender gets the failure.
+    private IOException failure;
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    // reopening a journal keeps its service registrations and cuts off a torn tail left by a crash.
+    public CommandJournal(Path path, long groupCommitMicros) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        long validEnd = scan(channel, entry -> {
+            if (entry.get() == REGISTER_ENTRY) {
+                int id = entry.getInt();
+                serviceIdsByName.put(readName(entry), id);
+            }
+        });
+        channel.truncate(validEnd);
+        channel.position(validEnd);
+        this.groupCommitNanos = TimeUnit.MICROSECONDS.toNanos(groupCommitMicros);
+        this.flusher = new Thread(this::flushLoop, "command-journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    // commands can only be journaled against a registered service, the name is what replay maps back to a receiver.
+    public synchronized void registerService(String name, FileService service) {
+        Integer id = serviceIdsByName.get(name);
+        if (id == null) {
+            id = serviceIdsByName.size();
+            serviceIdsByName.put(name, id);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try {
+                DataOutputStream out = new DataOutputStream(body);
+                out.writeByte(REGISTER_ENTRY);
+                out.writeInt(id);
+                byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(nameBytes.length);
+                out.write(nameBytes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            enqueue(body.toByteArray());
+        }
+        serviceIds.put(service, id);
+    }
+
+    // returns once the command is durable.
+    public void append(Command command) {
+        awaitDurable(enqueue(encode(command)));
+    }
+
+    // the whole batch shares a single force(); every command is encoded first, so a batch is journaled entirely or not at all.
+    public void appendAll(List<Command> commands) {
+        List<byte[]> bodies = new ArrayList<>(commands.size());
+        for (Command command : commands) {
+            bodies.add(encode(command));
+        }
+        long sequence = 0;
+        for (byte[] body : bodies) {
+            sequence = enqueue(body);
+        }
+        awaitDurable(sequence);
+    }
+
+    private synchronized int serviceId(FileService service) {
+        Integer id = serviceIds.get(service);
+        if (id == null) {
+            throw new IllegalArgumentException("file service is not registered with the journal");
+        }
+        return id;
+    }
+
+    private byte[] encode(Command command) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(body);
+            if (command instanceof FileOpenCommand) {
+                out.writeByte(OPEN_ENTRY);
+                out.writeInt(serviceId(((FileOpenCommand) command).getFileService()));
+            } else if (command instanceof FileCloseCommand) {
+                out.writeByte(CLOSE_ENTRY);
+                out.writeInt(serviceId(((FileCloseCommand) command).getFileService()));
+            } else if (command instanceof FileWriteCommand) {
+                FileWriteCommand write = (FileWriteCommand) command;
+                out.writeByte(WRITE_ENTRY);
+                out.writeInt(serviceId(write.getFileService()));
+                int length = 0;
+                for (ByteBuffer buffer : write.getPayload()) {
+                    length += buffer.remaining();
+                }
+                out.writeInt(length);
+                for (ByteBuffer buffer : write.getPayload()) {
+                    ByteBuffer bytes = buffer.duplicate();
+                    while (bytes.hasRemaining()) {
+                        out.writeByte(bytes.get());
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("command cannot be journaled: " + command.getClass().getSimpleName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return body.toByteArray();
+    }
+
+    private synchronized long enqueue(byte[] body) {
+        checkFailure();
+        if (!running) {
+            throw new IllegalStateException("journal is closed");
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        try {
+            pendingOut.writeInt(body.length);
+            pendingOut.writeInt((int) crc.getValue());
+            pendingOut.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ++appendedSequence;
+    }
+
+    private synchronized void awaitDurable(long sequence) {
+        boolean interrupted = false;
+        try {
+            while (durableSequence < sequence) {
+                checkFailure();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private synchronized void checkFailure() {
+        if (failure != null) {
+            throw new UncheckedIOException("journal write failed", failure);
+        }
+    }
+
+    private synchronized boolean hasFailed() {
+        return failure != null;
+    }
+
+    private void flushLoop() {
+        while (running && !hasFailed()) {
+            LockSupport.parkNanos(groupCommitNanos);
+            flushPending();
+        }
+    }
+
+    // only the flusher thread, and close() after it has stopped, write to the channel.
+    private void flushPending() {
+        byte[] group;
+        long sequence;
+        synchronized (this) {
+            if (pending.size() == 0 || failure != null) {
+                return;
+            }
+            group = pending.toByteArray();
+            pending.reset();
+            sequence = appendedSequence;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(group);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+            return;
+        }
+        synchronized (this) {
+            durableSequence = sequence;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushPending();
+        channel.close();
+        synchronized (this) {
+            if (failure != null) {
+                throw new IOException("journal write failed", failure);
+            }
+        }
+    }
+
+    // feeds every intact entry body to the consumer and returns where the intact part of the journal ends.
+    private static long scan(FileChannel channel, Consumer<ByteBuffer> consumer) throws IOException {
+        MappedByteBuffer journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        CRC32 crc = new CRC32();
+        while (journal.remaining() >= FRAME_HEADER_BYTES) {
+            int start = journal.position();
+            int length = journal.getInt();
+            int checksum = journal.getInt();
+            if (length <= 0 || length > journal.remaining()) {
+                return start;
+            }
+            ByteBuffer body = journal.slice();
+            body.limit(length);
+            crc.reset();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                return start;
+            }
+            consumer.accept(body);
+            journal.position(start + FRAME_HEADER_BYTES + length);
+        }
+        return journal.position();
+    }
+
+    private static String readName(ByteBuffer entry) {
+        byte[] name = new byte[entry.getShort() & 0xFFFF];
+        entry.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    // re-executes every journaled command against the receivers registered under the same names, returns how many ran.
+    public static int replay(Path path, Map<String, FileService> services) throws IOException {
+        Map<Integer, FileService> servicesById = new HashMap<>();
+        int[] replayed = new int[1];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            scan(channel, entry -> {
+                byte type = entry.get();
+                int id = entry.getInt();
+                if (type == REGISTER_ENTRY) {
+                    servicesById.put(id, services.get(readName(entry)));
+                    return;
+                }
+                FileService service = servicesById.get(id);
+                if (service == null) {
+                    throw new IllegalStateException("no file service given for journal service id " + id);
+                }
+                Command command;
+                if (type == OPEN_ENTRY) {
+                    command = new FileOpenCommand(service);
+                } else if (type == CLOSE_ENTRY) {
+                    command = new FileCloseCommand(service);
+                } else {
+                    byte[] payload = new byte[entry.getInt()];
+                    entry.get(payload);
+                    command = new FileWriteCommand(service, ByteBuffer.wrap(payload));
+                }
+                command.execute();
+                replayed[0]++;
+            });
+        }
+        return replayed[0];
+    }
+}
+
+// batching invoker : queues commands, a worker runs them in batches and merges consecutive writes against the same file service.
+class BatchingFileInvoker {
+    private final BlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+    private final int batchSize;
+    private final long lingerNanos;
+    private final CommandJournal journal;
+    private final Thread worker;
+    private final AtomicLong failedCount = new AtomicLong();
+    // submits hold the read lock, so none can enqueue after shutdown() has flipped running and the worker has drained.
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+    private volatile long executedBatches;
+    private volatile long mergedWrites;
+
+    public BatchingFileInvoker(int batchSize, long lingerMillis) {
+        this(batchSize, lingerMillis, null);
+    }
+
+    public BatchingFileInvoker(int batchSize, long lingerMillis, CommandJournal journal) {
+        this.journal = journal;
+        this.batchSize = batchSize;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.worker = new Thread(this::runBatches, "file-invoker");
+        this.worker.start();
+    }
+
+    public void submit(Command command) {
+        shutdownLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("invoker is shut down");
+            }
+            queue.add(command);
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    private void runBatches() {
+        List<Command> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                Command first = queue.poll(lingerNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + lingerNanos;
+                while (batch.size() < batchSize) {
+                    Command next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                executeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // a failing command is counted and skipped, the worker keeps running the rest of the batch and later ones.
+    private void executeBatch(List<Command> batch) {
+        if (journal != null) {
+            batch = journalBatch(batch);
+        }
+        List<FileWriteCommand> writes = new ArrayList<>();
+        for (Command command : batch) {
+            if (command instanceof FileWriteCommand) {
+                FileWriteCommand write = (FileWriteCommand) command;
+                if (!writes.isEmpty() && writes.get(0).getFileService() != write.getFileService()) {
+                    flushWrites(writes);
+                }
+                writes.add(write);
+            } else {
+                flushWrites(writes);
+                try {
+                    command.execute();
+                } catch (RuntimeException e) {
+                    failedCount.incrementAndGet();
+                }
+            }
+        }
+        flushWrites(writes);
+        executedBatches++;
+    }
+
+    // the batch shares one force(); if any command cannot be journaled, the others are journaled one by one
+    // and only commands that made it into the journal run.
+    private List<Command> journalBatch(List<Command> batch) {
+        try {
+            journal.appendAll(batch);
+            return batch;
+        } catch (RuntimeException e) {
+            List<Command> journaled = new ArrayList<>(batch.size());
+            for (Command command : batch) {
+                try {
+                    journal.append(command);
+                    journaled.add(command);
+                } catch (RuntimeException commandFailure) {
+                    failedCount.incrementAndGet();
+                }
+            }
+            return journaled;
+        }
+    }
+
+    private void flushWrites(List<FileWriteCommand> writes) {
+        if (writes.isEmpty()) {
+            return;
+        }
+        try {
+            FileWriteCommand.merge(writes).execute();
+            mergedWrites += writes.size() - 1;
+        } catch (RuntimeException e) {
+            failedCount.addAndGet(writes.size());
+        }
+        writes.clear();
+    }
+
+    // stops accepting commands and waits until every queued command has run.
+    public void shutdown() throws InterruptedException {
+        shutdownLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        worker.join();
+    }
+
+    public long getExecutedBatches() {
+        return executedBatches;
+    }
+
+    public long getMergedWrites() {
+        return mergedWrites;
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
+
+// striped executor : commands for different files run in parallel, commands for one file keep their FIFO order.
+class StripedFileExecutor {
+    private static class Stripe {
+        private final Queue<Command> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+    }
+
+    private final Stripe[] stripes;
+    private final ExecutorService executor = newTaskExecutor();
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private final AtomicLong failedCount = new AtomicLong();
+    private boolean running = true;
+
+    public StripedFileExecutor(int stripeCount) {
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    // virtual threads where the runtime has them (Java 21+), a cached platform thread pool otherwise.
+    private static ExecutorService newTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // commands that are not file commands have no ordering key and land on any stripe. A copy is keyed by its source,
+    // so it runs after the writes and close queued for the source; commands for its target are not ordered with it,
+    // submit the copy only once the target's earlier commands have run.
+    private Stripe stripeFor(Command command) {
+        Object key = command instanceof FileCommand ? ((FileCommand) command).getFileService() : command;
+        int hash = System.identityHashCode(key);
+        return stripes[Math.floorMod(hash ^ (hash >>> 16), stripes.length)];
+    }
+
+    public void submit(Command command) {
+        shutdownLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("executor is shut down");
+            }
+            Stripe stripe = stripeFor(command);
+            stripe.depth.incrementAndGet();
+            stripe.queue.add(command);
+            if (stripe.scheduled.compareAndSet(false, true)) {
+                executor.execute(() -> drain(stripe));
+            }
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    // at most one drain runs per stripe, it keeps going until the stripe is empty.
+    private void drain(Stripe stripe) {
+        do {
+            Command command;
+            while ((command = stripe.queue.poll()) != null) {
+                try {
+                    command.execute();
+                } catch (RuntimeException e) {
+                    failedCount.incrementAndGet();
+                } finally {
+                    stripe.depth.decrementAndGet();
+                }
+            }
+            stripe.scheduled.set(false);
+        } while (!stripe.queue.isEmpty() && stripe.scheduled.compareAndSet(false, true));
+    }
+
+    public int[] getStripeQueueDepths() {
+        int[] depths = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            depths[i] = stripes[i].depth.get();
+        }
+        return depths;
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    // stops accepting commands and waits until every submitted command has run.
+    public void shutdown() throws InterruptedException {
+        shutdownLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+}
+
+// priority invoker : runs queued commands by priority, ages waiting commands so none starves, and cancels expired ones.
+class PriorityFileInvoker {
+    private static final int HISTOGRAM_BUCKETS = 40;
+
+    private static class QueuedCommand implements Comparable<QueuedCommand> {
+        private final PrioritizedCommand command;
+        private final long enqueuedNanos;
+        private final long rank;
+        private final long sequence;
+
+        private QueuedCommand(PrioritizedCommand command, long enqueuedNanos, long rank, long sequence) {
+            this.command = command;
+            this.enqueuedNanos = enqueuedNanos;
+            this.rank = rank;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(QueuedCommand other) {
+            int byRank = Long.compare(rank, other.rank);
+            return byRank != 0 ? byRank : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityBlockingQueue<QueuedCommand> queue = new PriorityBlockingQueue<>();
+    private final long agingNanosPerPriority;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong expiredCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    // bucket i counts commands that waited between 2^i and 2^(i+1) microseconds.
+    private final AtomicLongArray waitTimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final List<Thread> workers = new ArrayList<>();
+    // submits hold the read lock, so none can enqueue after shutdown() has flipped running and the workers have drained.
+    private final ReadWriteLock shutdownLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    public PriorityFileInvoker(int workerCount, long agingMillisPerPriority) {
+        this.agingNanosPerPriority = TimeUnit.MILLISECONDS.toNanos(agingMillisPerPriority);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(this::runCommands, "priority-file-invoker-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    // the rank is fixed at submit time: each priority step counts as having waited agingMillisPerPriority longer,
+    // so a low priority command is eventually ranked ahead of every high priority command submitted after it.
+    public void submit(PrioritizedCommand command) {
+        shutdownLock.readLock().lock();
+        try {
+            if (!running) {
+                throw new IllegalStateException("invoker is shut down");
+            }
+            long now = System.nanoTime();
+            long rank = now - command.getPriority() * agingNanosPerPriority;
+            queue.add(new QueuedCommand(command, now, rank, sequence.getAndIncrement()));
+        } finally {
+            shutdownLock.readLock().unlock();
+        }
+    }
+
+    private void runCommands() {
+        try {
+            while (running || !queue.isEmpty()) {
+                QueuedCommand queued = queue.poll(1, TimeUnit.MILLISECONDS);
+                if (queued == null) {
+                    continue;
+                }
+                long now = System.nanoTime();
+                recordWaitTime(now - queued.enqueuedNanos);
+                if (queued.command.isExpired(now)) {
+                    expiredCount.incrementAndGet();
+                } else {
+                    try {
+                        queued.command.execute();
+                    } catch (RuntimeException e) {
+                        failedCount.incrementAndGet();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void recordWaitTime(long waitNanos) {
+        long waitMicros = Math.max(1, TimeUnit.NANOSECONDS.toMicros(waitNanos));
+        int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(waitMicros));
+        waitTimeHistogram.incrementAndGet(bucket);
+    }
+
+    public long getExpiredCount() {
+        return expiredCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long[] getWaitTimeHistogram() {
+        long[] histogram = new long[HISTOGRAM_BUCKETS];
+        for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+            histogram[i] = waitTimeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    // stops accepting commands and waits until every queued command has run or expired.
+    public void shutdown() throws InterruptedException {
+        shutdownLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            shutdownLock.writeLock().unlock();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+}
+
 // client
 class CommandDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         FileService fs = new LinuxFileService();
         Command openFileCmd = new FileOpenCommand(fs);
         Command closeFileCmd = new FileCloseCommand(fs);
@@ -122,6 +1013,71 @@ class CommandDemo {
         fileInvoker.execute();
         fileInvoker = new FileInvoker(closeFileCmd);
         fileInvoker.execute();
+
+        BatchingFileInvoker batchingInvoker = new BatchingFileInvoker(64, 1);
+        batchingInvoker.submit(openFileCmd);
+        for (int i = 0; i < 3; i++) {
+            batchingInvoker.submit(new FileWriteCommand(fs));
+        }
+        batchingInvoker.submit(closeFileCmd);
+        batchingInvoker.shutdown();
+        System.out.println("Batches executed: " + batchingInvoker.getExecutedBatches() + ", writes merged: "
+                + batchingInvoker.getMergedWrites());
+
+        Path directory = Files.createTempDirectory("command-demo");
+        ChannelFileService source = new ChannelFileService(directory.resolve("source.txt"),
+                ChannelFileService.WriteMode.CHANNEL);
+        ChannelFileService copy = new ChannelFileService(directory.resolve("copy.txt"),
+                ChannelFileService.WriteMode.MAPPED);
+        new FileInvoker(new FileOpenCommand(source)).execute();
+        new FileInvoker(new FileWriteCommand(source, StandardCharsets.UTF_8.encode("Hello "),
+                StandardCharsets.UTF_8.encode("from a gathering write\n"))).execute();
+        new FileInvoker(new FileOpenCommand(copy)).execute();
+        new FileInvoker(new FileCopyCommand(source, copy)).execute();
+        new FileInvoker(new FileCloseCommand(copy)).execute();
+        new FileInvoker(new FileCloseCommand(source)).execute();
+        System.out.print("Copied file content: " + Files.readString(copy.getPath()));
+
+        Path journalPath = directory.resolve("commands.journal");
+        ChannelFileService journaled = new ChannelFileService(directory.resolve("journaled.txt"),
+                ChannelFileService.WriteMode.CHANNEL);
+        try (CommandJournal journal = new CommandJournal(journalPath, 1000)) {
+            journal.registerService("journaled", journaled);
+            new FileInvoker(new FileOpenCommand(journaled), journal).execute();
+            new FileInvoker(new FileWriteCommand(journaled, StandardCharsets.UTF_8.encode("Journaled write\n")), journal)
+                    .execute();
+            new FileInvoker(new FileCloseCommand(journaled), journal).execute();
+        }
+        ChannelFileService rebuilt = new ChannelFileService(directory.resolve("rebuilt.txt"),
+                ChannelFileService.WriteMode.CHANNEL);
+        int replayed = CommandJournal.replay(journalPath, Map.of("journaled", rebuilt));
+        System.out.print("Replayed " + replayed + " commands, rebuilt file content: "
+                + Files.readString(rebuilt.getPath()));
+
+        StripedFileExecutor stripedExecutor = new StripedFileExecutor(8);
+        List<ChannelFileService> parallelFiles = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ChannelFileService file = new ChannelFileService(directory.resolve("parallel-" + i + ".txt"),
+                    ChannelFileService.WriteMode.CHANNEL);
+            parallelFiles.add(file);
+            stripedExecutor.submit(new FileOpenCommand(file));
+            stripedExecutor.submit(new FileWriteCommand(file, StandardCharsets.UTF_8.encode("Written in order\n")));
+            stripedExecutor.submit(new FileCloseCommand(file));
+        }
+        stripedExecutor.shutdown();
+        for (ChannelFileService file : parallelFiles) {
+            System.out.print(file.getPath().getFileName() + ": " + Files.readString(file.getPath()));
+        }
+
+        PriorityFileInvoker priorityInvoker = new PriorityFileInvoker(1, 5);
+        for (int i = 0; i < 3; i++) {
+            priorityInvoker.submit(new PrioritizedCommand(writeFileCmd, PrioritizedCommand.BULK_PRIORITY));
+        }
+        priorityInvoker.submit(new PrioritizedCommand(openFileCmd, PrioritizedCommand.INTERACTIVE_PRIORITY));
+        priorityInvoker.submit(new PrioritizedCommand(closeFileCmd, PrioritizedCommand.BULK_PRIORITY, 0));
+        priorityInvoker.shutdown();
+        System.out.println("Expired commands: " + priorityInvoker.getExpiredCount() + ", wait time histogram (log2 us): "
+                + Arrays.toString(priorityInvoker.getWaitTimeHistogram()));
     }
 }
 
@@ -131,4 +1087,7 @@ Steps to create command pattern class ->
 2. Create concrete implementation of command interface. Command classes should have a reference to the receiver object to which the request will be redirected.
 3. Create a receiver interface and concrete implementation. These are the classes which will finally handle the request.
 4. Create a invoker class with a single execution method and the request will be redirected to the respective command object.
+5. An invoker can also queue commands and run them in batches, since each command is a self-contained object.
+6. For the same reason commands can be journaled before they run and replayed later against fresh receivers.
+7. Commands that name their receiver can be run in parallel across receivers while staying in order for each one.
 */
@@ -3,15 +3,37 @@ Iterator is a behavioral design pattern that lets you traverse elements of a col
 Refs - https://www.geeksforgeeks.org/iterator-pattern/
 */
 
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.stream.*;
 
 // concrete product class
 class Employee {
     private String name;     
     private String salary;
+    private long salaryAmount;
     public Employee(String name, String salary) {
         this.name = name;
         this.salary = salary;
+        this.salaryAmount = Salary.parseOrUnknown(salary);
+    }
+    public String getName() {
+        return this.name;
+    }
+    public String getSalary() {
+        return this.salary;
+    }
+    // rupees per annum, Salary.UNKNOWN if the salary string is not of the form "nLPA".
+    public long getSalaryAmount() {
+        return this.salaryAmount;
     }
     @Override
     public String toString() {
@@ -19,19 +41,65 @@ class Employee {
     }
 }
 
+// salary strings like "5LPA" parsed once, kept as rupees per annum.
+final class Salary {
+    // any other salary string, such as "N/A"; aggregations leave these employees out.
+    public static final long UNKNOWN = -1L;
+    private static final long LAKH = 100_000L;
+    private Salary() {
+    }
+    public static long parse(String salary) {
+        String amount = salary.endsWith("LPA") ? salary.substring(0, salary.length() - 3) : salary;
+        return Math.round(Double.parseDouble(amount.trim()) * LAKH);
+    }
+    public static long parseOrUnknown(String salary) {
+        if(salary == null) {
+            return UNKNOWN;
+        }
+        try {
+            long rupees = parse(salary);
+            return rupees >= 0 ? rupees : UNKNOWN;
+        } catch (NumberFormatException e) {
+            return UNKNOWN;
+        }
+    }
+    public static boolean isKnown(long rupees) {
+        return rupees != UNKNOWN;
+    }
+    public static String format(long rupees) {
+        if(rupees == UNKNOWN) {
+            return "unknown";
+        }
+        return (rupees % LAKH == 0 ? String.valueOf(rupees / LAKH) : String.valueOf((double) rupees / LAKH)) + "LPA";
+    }
+}
+
 // iterable interface
-interface Iterable {
-    public Iterator getIterator();
+interface Iterable<T> {
+    public Iterator<T> getIterator();
 }
 
 // iterator interface
-interface Iterator {
+interface Iterator<T> {
     public boolean hasNext();
-    public Object next();
+    public T next();
+    // bulk fetch : copies up to dest.length elements, as next() would return them, returns how many were copied (0 at the end).
+    public default int nextBatch(T[] dest) {
+        int count = 0;
+        while(count < dest.length && hasNext()) {
+            dest[count++] = next();
+        }
+        return count;
+    }
+    public default void forEachRemaining(Consumer<? super T> action) {
+        while(hasNext()) {
+            action.accept(next());
+        }
+    }
 }
 
 // concrete iterator
-class EmployeeIterator implements Iterator {
+class EmployeeIterator implements Iterator<Employee> {
     List<Employee> employeeList;
     int currentIndex;
     public EmployeeIterator(List<Employee> employeeList) {
@@ -46,17 +114,78 @@ class EmployeeIterator implements Iterator {
         return false;
     }
     @Override
-    public Object next() {
+    public Employee next() {
         if(hasNext()) {
             this.currentIndex++;
             return employeeList.get(currentIndex);
         }
         return null;
     }
+    @Override
+    public int nextBatch(Employee[] dest) {
+        int count = Math.min(dest.length, employeeList.size() - 1 - currentIndex);
+        for(int i = 0; i < count; i++) {
+            dest[i] = employeeList.get(currentIndex + 1 + i);
+        }
+        currentIndex += count;
+        return count;
+    }
+    @Override
+    public void forEachRemaining(Consumer<? super Employee> action) {
+        int size = employeeList.size();
+        for(int i = currentIndex + 1; i < size; i++) {
+            action.accept(employeeList.get(i));
+        }
+        currentIndex = size - 1;
+    }
+}
+
+// splittable iterator : lets java.util.stream and fork-join split the employee list into index ranges.
+class EmployeeSpliterator implements Spliterator<Employee> {
+    private final List<Employee> employeeList;
+    private int index;
+    private final int fence;
+    public EmployeeSpliterator(List<Employee> employeeList, int index, int fence) {
+        this.employeeList = employeeList;
+        this.index = index;
+        this.fence = fence;
+    }
+    @Override
+    public boolean tryAdvance(Consumer<? super Employee> action) {
+        if(index < fence) {
+            action.accept(employeeList.get(index++));
+            return true;
+        }
+        return false;
+    }
+    @Override
+    public void forEachRemaining(Consumer<? super Employee> action) {
+        for(; index < fence; index++) {
+            action.accept(employeeList.get(index));
+        }
+    }
+    @Override
+    public Spliterator<Employee> trySplit() {
+        int mid = (index + fence) >>> 1;
+        if(mid <= index) {
+            return null;
+        }
+        Spliterator<Employee> prefix = new EmployeeSpliterator(employeeList, index, mid);
+        index = mid;
+        return prefix;
+    }
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | ORDERED | NONNULL;
+    }
 }
 
 // concrete iterable
-class EmployeeCollection implements Iterable {
+class EmployeeCollection implements Iterable<Employee> {
     List<Employee> employeeList;
     public EmployeeCollection() {
         this.employeeList = new ArrayList<>();
@@ -65,23 +194,446 @@ class EmployeeCollection implements Iterable {
         employeeList.add(new Employee(name, salary));
     }
     @Override
-    public Iterator getIterator() {
+    public Iterator<Employee> getIterator() {
         return new EmployeeIterator(employeeList);
     }
+    public Spliterator<Employee> spliterator() {
+        return new EmployeeSpliterator(employeeList, 0, employeeList.size());
+    }
+    public Stream<Employee> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+    public Stream<Employee> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+    // employees with an unknown salary are left out of the salary aggregations.
+    private LongStream knownSalaries() {
+        return parallelStream().mapToLong(Employee::getSalaryAmount).filter(Salary::isKnown);
+    }
+    public long totalSalary() {
+        return knownSalaries().sum();
+    }
+    public double averageSalary() {
+        return knownSalaries().average().orElse(0);
+    }
+    // every split keeps its own bounded min-heap of n employees, the heaps are merged instead of sorting everyone.
+    public List<Employee> topBySalary(int n) {
+        Comparator<Employee> bySalary = Comparator.comparingLong(Employee::getSalaryAmount);
+        return parallelStream().filter(employee -> Salary.isKnown(employee.getSalaryAmount())).collect(Collector.of(
+                () -> new PriorityQueue<>(bySalary),
+                (PriorityQueue<Employee> heap, Employee employee) -> {
+                    heap.add(employee);
+                    if(heap.size() > n) {
+                        heap.poll();
+                    }
+                },
+                (left, right) -> {
+                    for(Employee employee : right) {
+                        left.add(employee);
+                        if(left.size() > n) {
+                            left.poll();
+                        }
+                    }
+                    return left;
+                },
+                heap -> {
+                    List<Employee> top = new ArrayList<>(heap);
+                    top.sort(bySalary.reversed());
+                    return top;
+                }));
+    }
+    // employee count per salary band, keyed by the band's lower bound.
+    public SortedMap<Long, Long> countBySalaryBand(long bandWidth) {
+        return parallelStream().filter(employee -> Salary.isKnown(employee.getSalaryAmount()))
+                .collect(Collectors.groupingBy(employee -> employee.getSalaryAmount() / bandWidth * bandWidth,
+                        TreeMap::new, Collectors.counting()));
+    }
+}
+
+// flyweight view : one reusable object that a cursor repositions on each row instead of creating a new Employee.
+class EmployeeView {
+    private ColumnarEmployeeCollection collection;
+    private int row;
+    EmployeeView(ColumnarEmployeeCollection collection) {
+        this.collection = collection;
+    }
+    void moveTo(int row) {
+        this.row = row;
+    }
+    public int getRow() {
+        return this.row;
+    }
+    public String getName() {
+        return collection.nameAt(row);
+    }
+    public long getSalary() {
+        return collection.salaryAt(row);
+    }
+    // copies the name bytes out without creating a String.
+    public int copyName(byte[] dest) {
+        return collection.copyNameAt(row, dest);
+    }
+    @Override
+    public String toString() {
+        return "Employee Details: " + getName() + " has a package of " + Salary.format(getSalary());
+    }
+}
+
+// concrete iterator : a cursor over the columns, next() returns the same view moved to the next row.
+class EmployeeCursor implements Iterator<EmployeeView> {
+    private final EmployeeView view;
+    private final int size;
+    private int currentIndex;
+    EmployeeCursor(ColumnarEmployeeCollection collection, int size) {
+        this.view = new EmployeeView(collection);
+        this.size = size;
+        this.currentIndex = -1;
+    }
+    @Override
+    public boolean hasNext() {
+        return currentIndex < size - 1;
+    }
+    @Override
+    public EmployeeView next() {
+        if(hasNext()) {
+            view.moveTo(++currentIndex);
+            return view;
+        }
+        return null;
+    }
+}
+
+// concrete iterable : columnar storage, salaries in a long[] and names packed into one shared UTF-8 byte arena.
+class ColumnarEmployeeCollection implements Iterable<EmployeeView> {
+    private long[] salaries;
+    private int[] nameOffsets;
+    private byte[] nameArena;
+    private int size;
+    private int arenaSize;
+    public ColumnarEmployeeCollection() {
+        this(16);
+    }
+    public ColumnarEmployeeCollection(int expectedEmployees) {
+        int capacity = Math.max(1, expectedEmployees);
+        this.salaries = new long[capacity];
+        this.nameOffsets = new int[capacity + 1];
+        this.nameArena = new byte[capacity * 8];
+    }
+    public void addEmployee(String name, String salary) {
+        addEmployee(name, Salary.parseOrUnknown(salary));
+    }
+    public void addEmployee(String name, long salary) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if(size == salaries.length) {
+            salaries = Arrays.copyOf(salaries, 2 * size);
+            nameOffsets = Arrays.copyOf(nameOffsets, 2 * size + 1);
+        }
+        if(arenaSize + nameBytes.length > nameArena.length) {
+            nameArena = Arrays.copyOf(nameArena, Math.max(2 * nameArena.length, arenaSize + nameBytes.length));
+        }
+        System.arraycopy(nameBytes, 0, nameArena, arenaSize, nameBytes.length);
+        arenaSize += nameBytes.length;
+        salaries[size] = salary;
+        nameOffsets[++size] = arenaSize;
+    }
+    public int size() {
+        return this.size;
+    }
+    long salaryAt(int row) {
+        return salaries[row];
+    }
+    String nameAt(int row) {
+        return new String(nameArena, nameOffsets[row], nameOffsets[row + 1] - nameOffsets[row],
+                StandardCharsets.UTF_8);
+    }
+    int copyNameAt(int row, byte[] dest) {
+        int length = nameOffsets[row + 1] - nameOffsets[row];
+        System.arraycopy(nameArena, nameOffsets[row], dest, 0, length);
+        return length;
+    }
+    // a scan over the salary column alone, no view or Employee touched.
+    public long totalSalary() {
+        long total = 0;
+        for(int row = 0; row < size; row++) {
+            if(salaries[row] != Salary.UNKNOWN) {
+                total += salaries[row];
+            }
+        }
+        return total;
+    }
+    @Override
+    public Iterator<EmployeeView> getIterator() {
+        return new EmployeeCursor(this, size);
+    }
+}
+
+// concrete iterator : parses "name,salary" CSV lines lazily out of a memory-mapped window that slides along the file.
+class EmployeeFileIterator implements Iterator<Employee> {
+    private final Path path;
+    private final long fileSize;
+    private final int windowSize;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private byte[] lineBuffer = new byte[128];
+    private Employee pending;
+    private long lineNumber;
+    public EmployeeFileIterator(Path path, int windowSize) {
+        this.path = path;
+        this.windowSize = windowSize;
+        try {
+            this.fileSize = Files.size(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        mapWindow(0);
+    }
+    // the mapping outlives the channel, so the channel is only open while mapping.
+    private void mapWindow(long start) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(windowSize, fileSize - start));
+            windowStart = start;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    @Override
+    public boolean hasNext() {
+        while(pending == null) {
+            int length = nextLine();
+            if(length < 0) {
+                return false;
+            }
+            lineNumber++;
+            if(length > 0) {
+                pending = parse(length);
+            }
+        }
+        return true;
+    }
+    // copies the next line into lineBuffer, remapping when the line runs past the window; -1 at end of file.
+    private int nextLine() {
+        int start = window.position();
+        if(windowStart + start >= fileSize) {
+            return -1;
+        }
+        int end = start;
+        while(end < window.limit() && window.get(end) != '\n') {
+            end++;
+        }
+        if(end == window.limit() && windowStart + end < fileSize) {
+            if(start == 0) {
+                throw new IllegalStateException("line " + (lineNumber + 1) + " is longer than the window");
+            }
+            mapWindow(windowStart + start);
+            return nextLine();
+        }
+        int length = end - start;
+        if(length > 0 && window.get(end - 1) == '\r') {
+            length--;
+        }
+        if(lineBuffer.length < length) {
+            lineBuffer = new byte[Math.max(length, 2 * lineBuffer.length)];
+        }
+        window.get(start, lineBuffer, 0, length);
+        window.position(Math.min(end + 1, window.limit()));
+        return length;
+    }
+    private Employee parse(int length) {
+        int comma = length - 1;
+        while(comma >= 0 && lineBuffer[comma] != ',') {
+            comma--;
+        }
+        if(comma < 0) {
+            throw new IllegalStateException("line " + lineNumber + " is not of the form name,salary");
+        }
+        String name = new String(lineBuffer, 0, comma, StandardCharsets.UTF_8).trim();
+        String salary = new String(lineBuffer, comma + 1, length - comma - 1, StandardCharsets.UTF_8).trim();
+        return new Employee(name, salary);
+    }
+    @Override
+    public Employee next() {
+        if(hasNext()) {
+            Employee employee = pending;
+            pending = null;
+            return employee;
+        }
+        return null;
+    }
+}
+
+// concrete iterable : employees stay in the file, every iterator streams them with memory independent of the file size.
+class EmployeeFileCollection implements Iterable<Employee> {
+    private static final int DEFAULT_WINDOW_SIZE = 1 << 20;
+    private final Path path;
+    private final int windowSize;
+    public EmployeeFileCollection(Path path) {
+        this(path, DEFAULT_WINDOW_SIZE);
+    }
+    public EmployeeFileCollection(Path path, int windowSize) {
+        this.path = path;
+        this.windowSize = windowSize;
+    }
+    @Override
+    public Iterator<Employee> getIterator() {
+        return new EmployeeFileIterator(path, windowSize);
+    }
+}
+
+// concrete iterator : walks a fixed prefix of the chunks, later appends are never seen.
+class SnapshotEmployeeIterator implements Iterator<Employee> {
+    private final ConcurrentEmployeeCollection collection;
+    private final int bound;
+    private int currentIndex;
+    public SnapshotEmployeeIterator(ConcurrentEmployeeCollection collection, int bound) {
+        this.collection = collection;
+        this.bound = bound;
+        this.currentIndex = -1;
+    }
+    @Override
+    public boolean hasNext() {
+        return currentIndex < bound - 1;
+    }
+    @Override
+    public Employee next() {
+        if(hasNext()) {
+            return collection.get(++currentIndex);
+        }
+        return null;
+    }
+    @Override
+    public int nextBatch(Employee[] dest) {
+        int count = Math.min(dest.length, bound - 1 - currentIndex);
+        collection.copyTo(currentIndex + 1, dest, count);
+        currentIndex += count;
+        return count;
+    }
+}
+
+// concrete iterable : writers append into chunks that never move and publish their slot with a volatile store,
+// any writer advances the published count over filled slots, so taking a snapshot is a single read of that count.
+class ConcurrentEmployeeCollection implements Iterable<Employee> {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int MAX_CHUNKS = 1 << 16;
+    private static final VarHandle SLOT = MethodHandles.arrayElementVarHandle(Employee[].class);
+    private final AtomicReferenceArray<Employee[]> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private final AtomicInteger claimed = new AtomicInteger();
+    private final AtomicInteger published = new AtomicInteger();
+    public void addEmployee(String name, String salary) {
+        Employee employee = new Employee(name, salary);
+        int index = claimed.getAndIncrement();
+        if(index >= MAX_CHUNKS * CHUNK_SIZE) {
+            throw new IllegalStateException("collection is full at " + MAX_CHUNKS * CHUNK_SIZE + " employees");
+        }
+        SLOT.setVolatile(chunkFor(index), index & (CHUNK_SIZE - 1), employee);
+        advancePublished();
+    }
+    // no writer waits for another: whichever writer fills the slot at the published count moves it forward,
+    // and a writer that finds the count behind an empty slot leaves the work to the writer still filling it.
+    private void advancePublished() {
+        int current = published.get();
+        while(current < claimed.get() && slot(current) != null) {
+            if(published.compareAndSet(current, current + 1)) {
+                current++;
+            } else {
+                current = published.get();
+            }
+        }
+    }
+    private Employee slot(int index) {
+        return (Employee) SLOT.getVolatile(chunkFor(index), index & (CHUNK_SIZE - 1));
+    }
+    private Employee[] chunkFor(int index) {
+        int chunkIndex = index >>> CHUNK_BITS;
+        Employee[] chunk = chunks.get(chunkIndex);
+        if(chunk == null) {
+            chunks.compareAndSet(chunkIndex, null, new Employee[CHUNK_SIZE]);
+            chunk = chunks.get(chunkIndex);
+        }
+        return chunk;
+    }
+    // only called below a published count, so the slot is already filled.
+    Employee get(int index) {
+        return slot(index);
+    }
+    // only called below a published count; reading that count made every slot below it visible, so plain copies are safe.
+    void copyTo(int from, Employee[] dest, int count) {
+        int copied = 0;
+        while(copied < count) {
+            int index = from + copied;
+            int offset = index & (CHUNK_SIZE - 1);
+            int run = Math.min(count - copied, CHUNK_SIZE - offset);
+            System.arraycopy(chunks.get(index >>> CHUNK_BITS), offset, dest, copied, run);
+            copied += run;
+        }
+    }
+    public int size() {
+        return published.get();
+    }
+    @Override
+    public Iterator<Employee> getIterator() {
+        return new SnapshotEmployeeIterator(this, size());
+    }
 }
 
 // client
 class IteratorDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         EmployeeCollection empList = new EmployeeCollection();
         empList.addEmployee("A", "5LPA");
         empList.addEmployee("B", "9LPA");
         empList.addEmployee("C", "15LPA");
         empList.addEmployee("D", "22LPA");
-        Iterator iterator = empList.getIterator();
+        Iterator<Employee> iterator = empList.getIterator();
         while(iterator.hasNext()) {
             System.out.println(iterator.next().toString());
         }
+        System.out.println("Total salary: " + Salary.format(empList.totalSalary()) + ", average salary: "
+                + Salary.format(Math.round(empList.averageSalary())));
+        System.out.println("Top 2 by salary: " + empList.topBySalary(2));
+        Map<String, Long> employeesPerBand = new LinkedHashMap<>();
+        empList.countBySalaryBand(Salary.parse("10LPA"))
+                .forEach((band, count) -> employeesPerBand.put(Salary.format(band), count));
+        System.out.println("Employees per 10LPA band: " + employeesPerBand);
+
+        ColumnarEmployeeCollection columnarList = new ColumnarEmployeeCollection();
+        columnarList.addEmployee("A", "5LPA");
+        columnarList.addEmployee("B", "9LPA");
+        columnarList.addEmployee("C", "15LPA");
+        columnarList.addEmployee("D", "22LPA");
+        Iterator<EmployeeView> cursor = columnarList.getIterator();
+        while(cursor.hasNext()) {
+            System.out.println(cursor.next().toString());
+        }
+        System.out.println("Total salary: " + Salary.format(columnarList.totalSalary()));
+
+        Path employeeFile = Files.createTempFile("employees", ".csv");
+        Files.write(employeeFile, List.of("E,7LPA", "F,12LPA", "G,30LPA"), StandardCharsets.UTF_8);
+        Iterator<Employee> fileIterator = new EmployeeFileCollection(employeeFile).getIterator();
+        while(fileIterator.hasNext()) {
+            System.out.println(fileIterator.next().toString());
+        }
+
+        ConcurrentEmployeeCollection concurrentList = new ConcurrentEmployeeCollection();
+        ExecutorService writers = Executors.newFixedThreadPool(4);
+        for(int w = 0; w < 4; w++) {
+            int writer = w;
+            writers.execute(() -> {
+                for(int i = 0; i < 10_000; i++) {
+                    concurrentList.addEmployee("W" + writer + "-" + i, (i % 30 + 1) + "LPA");
+                }
+            });
+        }
+        Iterator<Employee> snapshot = concurrentList.getIterator();
+        Employee[] batch = new Employee[256];
+        int seen = 0;
+        for(int fetched = snapshot.nextBatch(batch); fetched > 0; fetched = snapshot.nextBatch(batch)) {
+            seen += fetched;
+        }
+        writers.shutdown();
+        writers.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("Snapshot taken during ingestion saw " + seen + " employees, final size: "
+                + concurrentList.size());
     }
 }
 
@@ -90,6 +642,7 @@ Steps to create iterator pattern class ->
 1. Declare iterable interface. This interface should provide a method to give reference to iterator.
 2. Declare iterator interface. This interface should provide 2 methods to check whether next element exists and to get the next element.
 3. Define concrete product class and it's collection class, this collection class should implement Iterable interface.
-4. Declare concrete iterator class and implementation for those 2 methods.
+4. Declare concrete iterator class and implementation for those 2 methods. Iterators over arrays or lists can also override the bulk nextBatch method.
 5. Define a client class to frame a collection of product items and then uses iterator to iterate over the collection.
+6. Since clients only see the iterator, the collection is free to change its storage, e.g. to columns read through a reused view object.
 */
\ No newline at end of file
@@ -4,7 +4,18 @@ Mediator pattern is used to reduce communication complexity between multiple obj
 Refs - https://www.javatpoint.com/mediator-pattern 
 */
 
+import java.io.*;
+import java.lang.invoke.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 import java.time.*;
 
 // mediator interface
@@ -16,11 +27,194 @@ interface GroupChat {
 class GroupChatImpl implements GroupChat {
     @Override
     public void broadcastMessageInGroupChat(GroupChatParticipant user, String message) {
-        System.out.println(user.getName() + " sent a message at: " + LocalDateTime.now());
+        System.out.println(user.getName() + " sent a message at: "
+                + CoarseClock.toLocalDateTime(CoarseClock.currentTimeMillis()));
         System.out.println(message);
     }
 }
 
+// coarse clock : one background thread refreshes the time every millisecond, readers pay a single volatile read.
+final class CoarseClock {
+    private static volatile long currentMillis = System.currentTimeMillis();
+
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                currentMillis = System.currentTimeMillis();
+                LockSupport.parkNanos(1_000_000);
+            }
+        }, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    public static long currentTimeMillis() {
+        return currentMillis;
+    }
+
+    public static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+}
+
+// one message kept in a room's history, the timestamp stays epoch millis until the entry is rendered.
+class ChatHistoryEntry {
+    private final long messageId;
+    private final long timestampMillis;
+    private final String senderName;
+    private final String message;
+
+    public ChatHistoryEntry(long messageId, long timestampMillis, String senderName, String message) {
+        this.messageId = messageId;
+        this.timestampMillis = timestampMillis;
+        this.senderName = senderName;
+        this.message = message;
+    }
+
+    public long getMessageId() {
+        return this.messageId;
+    }
+
+    public long getTimestampMillis() {
+        return this.timestampMillis;
+    }
+
+    public String getSenderName() {
+        return this.senderName;
+    }
+
+    public String getMessage() {
+        return this.message;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + CoarseClock.toLocalDateTime(timestampMillis) + "] " + senderName + ": " + message;
+    }
+}
+
+// history store : keeps the last N messages of a room, ids are consecutive so a message's slot is its id modulo N.
+interface ChatHistory {
+    public long append(long timestampMillis, String senderName, String message);
+
+    // up to count messages older than messageId, oldest first; Long.MAX_VALUE pages back from the newest.
+    public List<ChatHistoryEntry> before(long messageId, int count);
+}
+
+// history store on the heap : parallel arrays indexed by slot.
+class HeapChatHistory implements ChatHistory {
+    private final long[] timestamps;
+    private final String[] senderNames;
+    private final String[] messages;
+    private long nextMessageId;
+
+    public HeapChatHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.timestamps = new long[capacity];
+        this.senderNames = new String[capacity];
+        this.messages = new String[capacity];
+    }
+
+    @Override
+    public synchronized long append(long timestampMillis, String senderName, String message) {
+        int slot = (int) (nextMessageId % messages.length);
+        timestamps[slot] = timestampMillis;
+        senderNames[slot] = senderName;
+        messages[slot] = message;
+        return nextMessageId++;
+    }
+
+    @Override
+    public synchronized List<ChatHistoryEntry> before(long messageId, int count) {
+        long end = Math.min(messageId, nextMessageId);
+        long start = Math.max(Math.max(0, nextMessageId - messages.length), end - count);
+        List<ChatHistoryEntry> page = new ArrayList<>();
+        for (long id = start; id < end; id++) {
+            int slot = (int) (id % messages.length);
+            page.add(new ChatHistoryEntry(id, timestamps[slot], senderNames[slot], messages[slot]));
+        }
+        return page;
+    }
+}
+
+// history store off the heap : fixed-size slots in one direct buffer, so the history adds no objects for the GC to trace.
+// Names and messages longer than a slot allows are cut short.
+class OffHeapChatHistory implements ChatHistory {
+    private static final int SLOT_HEADER_BYTES = Long.BYTES + 2 * Short.BYTES;
+    private final ByteBuffer slots;
+    private final int capacity;
+    private final int slotBytes;
+    private long nextMessageId;
+
+    public OffHeapChatHistory(int capacity, int slotBytes) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        // lengths are stored as shorts, so a slot holds at most Short.MAX_VALUE bytes of name and message.
+        if (slotBytes <= SLOT_HEADER_BYTES || slotBytes > SLOT_HEADER_BYTES + Short.MAX_VALUE) {
+            throw new IllegalArgumentException("slotBytes must be between " + (SLOT_HEADER_BYTES + 1) + " and "
+                    + (SLOT_HEADER_BYTES + Short.MAX_VALUE) + ": " + slotBytes);
+        }
+        if ((long) capacity * slotBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                    "capacity * slotBytes exceeds a single buffer: " + capacity + " * " + slotBytes);
+        }
+        this.slots = ByteBuffer.allocateDirect(capacity * slotBytes);
+        this.capacity = capacity;
+        this.slotBytes = slotBytes;
+    }
+
+    @Override
+    public synchronized long append(long timestampMillis, String senderName, String message) {
+        int at = (int) (nextMessageId % capacity) * slotBytes;
+        int room = slotBytes - SLOT_HEADER_BYTES;
+        byte[] name = senderName.getBytes(StandardCharsets.UTF_8);
+        int nameLength = utf8Prefix(name, room);
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int textLength = utf8Prefix(text, room - nameLength);
+        slots.putLong(at, timestampMillis);
+        slots.putShort(at + Long.BYTES, (short) nameLength);
+        slots.putShort(at + Long.BYTES + Short.BYTES, (short) textLength);
+        slots.put(at + SLOT_HEADER_BYTES, name, 0, nameLength);
+        slots.put(at + SLOT_HEADER_BYTES + nameLength, text, 0, textLength);
+        return nextMessageId++;
+    }
+
+    // the longest prefix of at most maxLength bytes that does not cut a character in half.
+    private static int utf8Prefix(byte[] utf8, int maxLength) {
+        if (utf8.length <= maxLength) {
+            return utf8.length;
+        }
+        int length = maxLength;
+        while (length > 0 && (utf8[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    @Override
+    public synchronized List<ChatHistoryEntry> before(long messageId, int count) {
+        long end = Math.min(messageId, nextMessageId);
+        long start = Math.max(Math.max(0, nextMessageId - capacity), end - count);
+        List<ChatHistoryEntry> page = new ArrayList<>();
+        for (long id = start; id < end; id++) {
+            int at = (int) (id % capacity) * slotBytes;
+            byte[] name = new byte[slots.getShort(at + Long.BYTES)];
+            byte[] text = new byte[slots.getShort(at + Long.BYTES + Short.BYTES)];
+            slots.get(at + SLOT_HEADER_BYTES, name);
+            slots.get(at + SLOT_HEADER_BYTES + name.length, text);
+            page.add(new ChatHistoryEntry(id, slots.getLong(at), new String(name, StandardCharsets.UTF_8),
+                    new String(text, StandardCharsets.UTF_8)));
+        }
+        return page;
+    }
+}
+
 // colleague
 abstract class GroupChatParticipant {
     protected String name;
@@ -34,6 +228,11 @@ abstract class GroupChatParticipant {
     }
 
     public abstract void sendMessageInGroupChat(String message);
+
+    // called by mediators that deliver messages to the other participants.
+    public void receiveMessage(String senderName, String message) {
+        System.out.println(this.name + " received from " + senderName + ": " + message);
+    }
 }
 
 // concrete colleague
@@ -50,9 +249,639 @@ class User extends GroupChatParticipant {
     }
 }
 
+// concrete mediator : one room of a ShardedChatServer, its participant list is only touched on the room's shard thread.
+class ChatRoom implements GroupChat {
+    private final String roomName;
+    private final ExecutorService shard;
+    private final LongAdder deliveredCount;
+    private final ChatHistory history;
+    private final List<GroupChatParticipant> participants = new ArrayList<>();
+
+    ChatRoom(String roomName, ExecutorService shard, LongAdder deliveredCount, ChatHistory history) {
+        this.roomName = roomName;
+        this.shard = shard;
+        this.deliveredCount = deliveredCount;
+        this.history = history;
+    }
+
+    public String getRoomName() {
+        return this.roomName;
+    }
+
+    // scrollback for late joiners.
+    public ChatHistory getHistory() {
+        return this.history;
+    }
+
+    public void join(GroupChatParticipant participant) {
+        shard.execute(() -> participants.add(participant));
+    }
+
+    public void leave(GroupChatParticipant participant) {
+        shard.execute(() -> participants.remove(participant));
+    }
+
+    @Override
+    public void broadcastMessageInGroupChat(GroupChatParticipant user, String message) {
+        String senderName = user.getName();
+        long timestampMillis = CoarseClock.currentTimeMillis();
+        shard.execute(() -> {
+            history.append(timestampMillis, senderName, message);
+            for (GroupChatParticipant participant : participants) {
+                if (participant != user) {
+                    participant.receiveMessage(senderName, message);
+                    deliveredCount.increment();
+                }
+            }
+        });
+    }
+}
+
+// chat server : rooms are spread over a fixed set of single-threaded event loops, so a room never needs a lock
+// and different rooms run on different cores.
+class ShardedChatServer {
+    private final ExecutorService[] shards;
+    private final Map<String, ChatRoom> rooms = new ConcurrentHashMap<>();
+    private final LongAdder deliveredCount = new LongAdder();
+    private final Function<String, ChatHistory> historyFactory;
+
+    public ShardedChatServer(int shardCount) {
+        this(shardCount, roomName -> new HeapChatHistory(1024));
+    }
+
+    public ShardedChatServer(int shardCount, Function<String, ChatHistory> historyFactory) {
+        this.historyFactory = historyFactory;
+        this.shards = new ExecutorService[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            String threadName = "chat-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(task -> new Thread(task, threadName));
+        }
+    }
+
+    public ChatRoom room(String roomName) {
+        return rooms.computeIfAbsent(roomName,
+                name -> new ChatRoom(name, shards[Math.floorMod(name.hashCode(), shards.length)], deliveredCount,
+                        historyFactory.apply(name)));
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.sum();
+    }
+
+    // delivers everything already broadcast, then stops the event loops.
+    public void shutdown() throws InterruptedException {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard : shards) {
+            shard.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+}
+
+// concrete mediator : a sender publishes once into a preallocated ring of reusable slots, every subscribed participant
+// reads it at its own sequence, and a slot is only reused once the slowest subscriber has passed it.
+class RingBufferGroupChat implements GroupChat {
+    private static class MessageSlot {
+        private GroupChatParticipant sender;
+        private String senderName;
+        private String message;
+    }
+
+    // one per participant, its thread delivers slots to the participant in sequence order.
+    private class Subscription implements Runnable {
+        private final GroupChatParticipant participant;
+        private final AtomicLong nextSequence;
+        private final Thread thread;
+        private volatile boolean active = true;
+
+        private Subscription(GroupChatParticipant participant, long startSequence) {
+            this.participant = participant;
+            this.nextSequence = new AtomicLong(startSequence);
+            this.thread = new Thread(this, "ring-chat-" + participant.getName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (active && (running || nextSequence.get() < claimedSequence.get())) {
+                long sequence = nextSequence.get();
+                int index = (int) sequence & mask;
+                int lag = availableRound.get(index) - (int) (sequence >>> indexBits);
+                if (lag < 0) {
+                    LockSupport.parkNanos(1_000);
+                    continue;
+                }
+                if (lag > 0) {
+                    // the slot already holds a later lap, what it held for this sequence is gone; resume from there.
+                    lappedCount.addAndGet((long) lag * slots.length);
+                    nextSequence.lazySet(sequence + (long) lag * slots.length);
+                    continue;
+                }
+                MessageSlot slot = slots[index];
+                if (slot.sender != participant) {
+                    participant.receiveMessage(slot.senderName, slot.message);
+                }
+                nextSequence.lazySet(sequence + 1);
+            }
+        }
+    }
+
+    private final MessageSlot[] slots;
+    private final int mask;
+    private final int indexBits;
+    // the round a slot was last published for, so a subscriber can tell a fresh slot from last lap's.
+    private final AtomicIntegerArray availableRound;
+    private final AtomicLong claimedSequence = new AtomicLong();
+    private final AtomicLong lappedCount = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    public RingBufferGroupChat(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two: " + capacity);
+        }
+        this.slots = new MessageSlot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new MessageSlot();
+        }
+        this.mask = capacity - 1;
+        this.indexBits = Integer.numberOfTrailingZeros(capacity);
+        this.availableRound = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            availableRound.set(i, -1);
+        }
+    }
+
+    // a new subscriber only sees messages published after it joined. It gates producers from a sequence read before it
+    // became visible, so no producer can lap the start sequence it then moves up to.
+    public void join(GroupChatParticipant participant) {
+        Subscription subscription = new Subscription(participant, claimedSequence.get());
+        subscriptions.add(subscription);
+        subscription.nextSequence.set(claimedSequence.get());
+        subscription.thread.start();
+    }
+
+    public void leave(GroupChatParticipant participant) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.participant == participant) {
+                subscription.active = false;
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    @Override
+    public void broadcastMessageInGroupChat(GroupChatParticipant user, String message) {
+        if (!running) {
+            throw new IllegalStateException("group chat is closed");
+        }
+        long sequence = claimedSequence.getAndIncrement();
+        int index = (int) sequence & mask;
+        int round = (int) (sequence >>> indexBits);
+        // the slot is reused once every subscriber has passed it and the producer of its previous lap has published.
+        while (sequence - slots.length >= slowestSequence(sequence) || availableRound.get(index) != round - 1) {
+            LockSupport.parkNanos(1_000);
+        }
+        MessageSlot slot = slots[index];
+        slot.sender = user;
+        slot.senderName = user.getName();
+        slot.message = message;
+        availableRound.lazySet(index, round);
+    }
+
+    private long slowestSequence(long upperBound) {
+        long slowest = upperBound;
+        for (Subscription subscription : subscriptions) {
+            slowest = Math.min(slowest, subscription.nextSequence.get());
+        }
+        return slowest;
+    }
+
+    // messages a subscriber never saw because their slots were reused before it read them.
+    public long getLappedCount() {
+        return lappedCount.get();
+    }
+
+    // lets every subscriber catch up with what was published, then stops them.
+    public void close() throws InterruptedException {
+        running = false;
+        for (Subscription subscription : subscriptions) {
+            subscription.thread.join();
+        }
+    }
+}
+
+// concrete mediator : every participant gets a bounded mailbox drained by its own thread, and a full mailbox is handled
+// by a slow-consumer policy instead of blocking everyone or growing without bound.
+class MailboxGroupChat implements GroupChat {
+    enum SlowConsumerPolicy {
+        BLOCK_SENDER, DROP_OLDEST, DROP_NEWEST, DISCONNECT
+    }
+
+    private static class Envelope {
+        private final GroupChatParticipant sender;
+        private final String senderName;
+        private final String message;
+
+        private Envelope(GroupChatParticipant sender, String message) {
+            this.sender = sender;
+            this.senderName = sender.getName();
+            this.message = message;
+        }
+    }
+
+    private class Mailbox implements Runnable {
+        private final GroupChatParticipant participant;
+        private final BlockingQueue<Envelope> queue;
+        private final AtomicLong droppedCount = new AtomicLong();
+        private final AtomicInteger overflowCount = new AtomicInteger();
+        private final Thread thread;
+        private volatile boolean connected = true;
+
+        private Mailbox(GroupChatParticipant participant) {
+            this.participant = participant;
+            this.queue = new ArrayBlockingQueue<>(mailboxCapacity);
+            this.thread = new Thread(this, "mailbox-" + participant.getName());
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (connected && (running || !queue.isEmpty())) {
+                    Envelope envelope = queue.poll(1, TimeUnit.MILLISECONDS);
+                    if (envelope != null) {
+                        participant.receiveMessage(envelope.senderName, envelope.message);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void deliver(Envelope envelope) throws InterruptedException {
+            if (queue.offer(envelope)) {
+                return;
+            }
+            switch (policy) {
+                case BLOCK_SENDER:
+                    // timed, so a sender blocked on a participant that leaves or is disconnected gets released.
+                    while (!queue.offer(envelope, 1, TimeUnit.MILLISECONDS)) {
+                        if (!connected) {
+                            droppedCount.incrementAndGet();
+                            break;
+                        }
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!queue.offer(envelope)) {
+                        if (queue.poll() != null) {
+                            droppedCount.incrementAndGet();
+                        }
+                    }
+                    break;
+                case DROP_NEWEST:
+                    droppedCount.incrementAndGet();
+                    break;
+                default:
+                    droppedCount.incrementAndGet();
+                    if (overflowCount.incrementAndGet() >= maxOverflows) {
+                        disconnect(this);
+                    }
+            }
+        }
+    }
+
+    private final int mailboxCapacity;
+    private final SlowConsumerPolicy policy;
+    private final int maxOverflows;
+    private final Map<GroupChatParticipant, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicLong disconnectedCount = new AtomicLong();
+    private volatile boolean running = true;
+
+    // maxOverflows only matters for the DISCONNECT policy.
+    public MailboxGroupChat(int mailboxCapacity, SlowConsumerPolicy policy, int maxOverflows) {
+        this.mailboxCapacity = mailboxCapacity;
+        this.policy = policy;
+        this.maxOverflows = maxOverflows;
+    }
+
+    public void join(GroupChatParticipant participant) {
+        Mailbox mailbox = new Mailbox(participant);
+        if (mailboxes.putIfAbsent(participant, mailbox) != null) {
+            throw new IllegalStateException(participant.getName() + " has already joined");
+        }
+        mailbox.thread.start();
+    }
+
+    public void leave(GroupChatParticipant participant) {
+        Mailbox mailbox = mailboxes.remove(participant);
+        if (mailbox != null) {
+            mailbox.connected = false;
+        }
+    }
+
+    private void disconnect(Mailbox mailbox) {
+        if (mailboxes.remove(mailbox.participant, mailbox)) {
+            mailbox.connected = false;
+            disconnectedCount.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void broadcastMessageInGroupChat(GroupChatParticipant user, String message) {
+        if (!running) {
+            throw new IllegalStateException("group chat is closed");
+        }
+        Envelope envelope = new Envelope(user, message);
+        try {
+            for (Mailbox mailbox : mailboxes.values()) {
+                if (mailbox.participant != envelope.sender) {
+                    mailbox.deliver(envelope);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getMailboxDepth(GroupChatParticipant participant) {
+        Mailbox mailbox = mailboxes.get(participant);
+        return mailbox == null ? 0 : mailbox.queue.size();
+    }
+
+    public long getDroppedCount(GroupChatParticipant participant) {
+        Mailbox mailbox = mailboxes.get(participant);
+        return mailbox == null ? 0 : mailbox.droppedCount.get();
+    }
+
+    public long getDisconnectedCount() {
+        return disconnectedCount.get();
+    }
+
+    // lets every connected mailbox drain, then stops the mailbox threads and releases any sender still blocked on one.
+    public void close() throws InterruptedException {
+        running = false;
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.thread.join();
+        }
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.connected = false;
+        }
+    }
+}
+
+// concrete mediator : processes on one host chat through memory-mapped files. Each process is the single writer of its
+// own outbox file, a ring of length-prefixed records whose header holds the published write position and the position
+// the writer has claimed up to; it tails the outbox of every other process in the directory and hands their messages to
+// its local participants.
+class SharedMemoryGroupChat implements GroupChat, Closeable {
+    private static final String OUTBOX_SUFFIX = ".chat";
+    private static final int HEADER_BYTES = 64;
+    private static final int WRITE_POSITION = 0;
+    private static final int CLAIM_POSITION = Long.BYTES;
+    private static final int WRAP_MARKER = -1;
+    private static final VarHandle HEADER_FIELD = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.nativeOrder());
+
+    // the reading side of another process's outbox, mapped for one incarnation of its file.
+    private static class PeerOutbox {
+        private final MappedByteBuffer ring;
+        private final long capacity;
+        private final Object fileKey;
+        private final long fileSize;
+        private long readPosition;
+
+        private PeerOutbox(MappedByteBuffer ring, Object fileKey, long fileSize) {
+            this.ring = ring;
+            this.capacity = ring.capacity() - HEADER_BYTES;
+            this.fileKey = fileKey;
+            this.fileSize = fileSize;
+            this.readPosition = (long) HEADER_FIELD.getAcquire(ring, WRITE_POSITION);
+        }
+    }
+
+    private final Path directory;
+    private final String processName;
+    private final MappedByteBuffer outbox;
+    private final long capacity;
+    private long writePosition;
+    private final List<GroupChatParticipant> participants = new CopyOnWriteArrayList<>();
+    private final Map<Path, PeerOutbox> peers = new HashMap<>();
+    private final AtomicLong lostCount = new AtomicLong();
+    private final Thread reader;
+    private volatile boolean running = true;
+
+    public SharedMemoryGroupChat(Path directory, String processName, int outboxBytes) throws IOException {
+        this.directory = directory;
+        this.processName = processName;
+        Files.createDirectories(directory);
+        Path outboxPath = directory.resolve(processName + OUTBOX_SUFFIX);
+        Files.deleteIfExists(outboxPath);
+        try (FileChannel channel = FileChannel.open(outboxPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.outbox = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + outboxBytes);
+        }
+        this.capacity = outboxBytes;
+        this.reader = new Thread(this::pollPeers, "shared-memory-chat-" + processName);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    public void join(GroupChatParticipant participant) {
+        participants.add(participant);
+    }
+
+    public void leave(GroupChatParticipant participant) {
+        participants.remove(participant);
+    }
+
+    // local participants get the message directly, other processes read it from the outbox.
+    @Override
+    public void broadcastMessageInGroupChat(GroupChatParticipant user, String message) {
+        for (GroupChatParticipant participant : participants) {
+            if (participant != user) {
+                participant.receiveMessage(user.getName(), message);
+            }
+        }
+        byte[] name = user.getName().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        publish(name, text);
+    }
+
+    private synchronized void publish(byte[] name, byte[] text) {
+        int recordBytes = Integer.BYTES + Short.BYTES + name.length + text.length;
+        if (recordBytes > capacity / 2) {
+            throw new IllegalArgumentException("message of " + recordBytes + " bytes is too large for the outbox");
+        }
+        int offset = (int) (writePosition % capacity);
+        int padding = capacity - offset < recordBytes ? (int) (capacity - offset) : 0;
+        // readers check the claim after copying a record, so it is raised before any byte it covers is overwritten.
+        HEADER_FIELD.setOpaque(outbox, CLAIM_POSITION, writePosition + padding + recordBytes);
+        VarHandle.releaseFence();
+        if (padding > 0) {
+            if (padding >= Integer.BYTES) {
+                outbox.putInt(HEADER_BYTES + offset, WRAP_MARKER);
+            }
+            writePosition += padding;
+            offset = 0;
+        }
+        int at = HEADER_BYTES + offset;
+        outbox.putInt(at, recordBytes - Integer.BYTES);
+        outbox.putShort(at + Integer.BYTES, (short) name.length);
+        outbox.put(at + Integer.BYTES + Short.BYTES, name);
+        outbox.put(at + Integer.BYTES + Short.BYTES + name.length, text);
+        writePosition += recordBytes;
+        HEADER_FIELD.setRelease(outbox, WRITE_POSITION, writePosition);
+    }
+
+    private void pollPeers() {
+        long lastScan = 0;
+        int idlePolls = 0;
+        while (running) {
+            if (System.nanoTime() - lastScan > TimeUnit.MILLISECONDS.toNanos(100)) {
+                discoverPeers();
+                lastScan = System.nanoTime();
+            }
+            boolean delivered = false;
+            for (PeerOutbox peer : peers.values()) {
+                delivered |= drain(peer);
+            }
+            // spin while messages flow, back off once the peers go quiet.
+            if (delivered) {
+                idlePolls = 0;
+            } else if (++idlePolls < 10_000) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+
+    // a peer that restarts deletes and recreates its outbox, so a file with a new identity or size is mapped afresh;
+    // outboxes that are gone are dropped.
+    private void discoverPeers() {
+        Set<Path> present = new HashSet<>();
+        try (DirectoryStream<Path> outboxes = Files.newDirectoryStream(directory, "*" + OUTBOX_SUFFIX)) {
+            for (Path path : outboxes) {
+                if (path.getFileName().toString().equals(processName + OUTBOX_SUFFIX)) {
+                    continue;
+                }
+                present.add(path);
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                    Object fileKey = attributes.fileKey() != null ? attributes.fileKey() : attributes.creationTime();
+                    long fileSize = channel.size();
+                    PeerOutbox peer = peers.get(path);
+                    boolean stale = peer == null || !peer.fileKey.equals(fileKey) || peer.fileSize != fileSize;
+                    if (fileSize > HEADER_BYTES && stale) {
+                        peers.put(path, new PeerOutbox(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize), fileKey,
+                                fileSize));
+                    }
+                } catch (NoSuchFileException e) {
+                    present.remove(path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        peers.keySet().retainAll(present);
+    }
+
+    // the writer has claimed bytes this reader has not consumed yet, whatever was copied from them may be torn.
+    private static boolean isLapped(PeerOutbox peer) {
+        VarHandle.acquireFence();
+        return (long) HEADER_FIELD.getAcquire(peer.ring, CLAIM_POSITION) - peer.readPosition > peer.capacity;
+    }
+
+    // gives up on everything not read yet and resumes at the writer's published position.
+    private void skipLapped(PeerOutbox peer) {
+        lostCount.incrementAndGet();
+        peer.readPosition = (long) HEADER_FIELD.getAcquire(peer.ring, WRITE_POSITION);
+    }
+
+    // a record is only delivered if the writer has not lapped it while it was being copied; lengths are only trusted
+    // once the claim shows the writer has not reused their bytes.
+    private boolean drain(PeerOutbox peer) {
+        boolean delivered = false;
+        long published = (long) HEADER_FIELD.getAcquire(peer.ring, WRITE_POSITION);
+        while (peer.readPosition < published) {
+            if (published - peer.readPosition > peer.capacity) {
+                skipLapped(peer);
+                break;
+            }
+            int offset = (int) (peer.readPosition % peer.capacity);
+            int length = peer.capacity - offset >= Integer.BYTES ? peer.ring.getInt(HEADER_BYTES + offset) : WRAP_MARKER;
+            int at = HEADER_BYTES + offset + Integer.BYTES;
+            int nameLength = length >= Short.BYTES && peer.capacity - offset - Integer.BYTES >= Short.BYTES
+                    ? peer.ring.getShort(at) & 0xFFFF : 0;
+            if (isLapped(peer)) {
+                skipLapped(peer);
+                break;
+            }
+            if (length == WRAP_MARKER) {
+                peer.readPosition += peer.capacity - offset;
+                continue;
+            }
+            if (length < Short.BYTES || length > peer.capacity / 2 || Integer.BYTES + length > peer.capacity - offset
+                    || nameLength > length - Short.BYTES) {
+                // not a record this writer could have published, the ring is corrupt from here on.
+                skipLapped(peer);
+                break;
+            }
+            byte[] name = new byte[nameLength];
+            peer.ring.get(at + Short.BYTES, name);
+            byte[] text = new byte[length - Short.BYTES - nameLength];
+            peer.ring.get(at + Short.BYTES + nameLength, text);
+            if (isLapped(peer)) {
+                skipLapped(peer);
+                break;
+            }
+            String senderName = new String(name, StandardCharsets.UTF_8);
+            String message = new String(text, StandardCharsets.UTF_8);
+            for (GroupChatParticipant participant : participants) {
+                participant.receiveMessage(senderName, message);
+            }
+            peer.readPosition += Integer.BYTES + length;
+            delivered = true;
+        }
+        return delivered;
+    }
+
+    public long getLostCount() {
+        return lostCount.get();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+// client for two JVMs on one host : java SharedMemoryChatPeer <directory> <name>, then type lines to broadcast them.
+class SharedMemoryChatPeer {
+    public static void main(String[] args) throws IOException {
+        try (SharedMemoryGroupChat groupChat = new SharedMemoryGroupChat(Paths.get(args[0]), args[1], 1 << 20)) {
+            GroupChatParticipant user = new User(groupChat);
+            user.setName(args[1]);
+            groupChat.join(user);
+            BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+            for (String line = console.readLine(); line != null; line = console.readLine()) {
+                user.sendMessageInGroupChat(line);
+            }
+        }
+    }
+}
+
 // client 
 class MediatorDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
         GroupChat groupChat = new GroupChatImpl();
         GroupChatParticipant user1 = new User(groupChat);
         user1.setName("Ram");
@@ -60,6 +889,70 @@ class MediatorDemo {
         user2.setName("Shyam");
         user1.sendMessageInGroupChat("Hi team, how are we doing today?");
         user2.sendMessageInGroupChat("Doing good mate.");
+
+        ShardedChatServer chatServer = new ShardedChatServer(Runtime.getRuntime().availableProcessors());
+        ChatRoom standup = chatServer.room("standup");
+        GroupChatParticipant user3 = new User(standup);
+        user3.setName("Sita");
+        GroupChatParticipant user4 = new User(standup);
+        user4.setName("Gita");
+        standup.join(user3);
+        standup.join(user4);
+        user3.sendMessageInGroupChat("Standup in five minutes.");
+        user4.sendMessageInGroupChat("Joining now.");
+        chatServer.shutdown();
+        System.out.println("Messages delivered: " + chatServer.getDeliveredCount());
+        for (ChatHistoryEntry entry : standup.getHistory().before(Long.MAX_VALUE, 10)) {
+            System.out.println("Scrollback " + entry);
+        }
+
+        RingBufferGroupChat announcements = new RingBufferGroupChat(1024);
+        GroupChatParticipant user5 = new User(announcements);
+        user5.setName("Arjun");
+        GroupChatParticipant user6 = new User(announcements);
+        user6.setName("Bheem");
+        announcements.join(user5);
+        announcements.join(user6);
+        user5.sendMessageInGroupChat("Release goes out at noon.");
+        announcements.close();
+
+        MailboxGroupChat support = new MailboxGroupChat(2, MailboxGroupChat.SlowConsumerPolicy.DROP_OLDEST, 0);
+        GroupChatParticipant user7 = new User(support);
+        user7.setName("Nakul");
+        GroupChatParticipant slowUser = new User(support) {
+            @Override
+            public void receiveMessage(String senderName, String message) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.receiveMessage(senderName, message);
+            }
+        };
+        slowUser.setName("Sahadev");
+        support.join(user7);
+        support.join(slowUser);
+        for (int i = 1; i <= 5; i++) {
+            user7.sendMessageInGroupChat("Ticket update " + i);
+        }
+        System.out.println("Slow mailbox depth: " + support.getMailboxDepth(slowUser) + ", dropped: "
+                + support.getDroppedCount(slowUser));
+        support.close();
+
+        Path chatDirectory = Files.createTempDirectory("shared-chat");
+        try (SharedMemoryGroupChat processA = new SharedMemoryGroupChat(chatDirectory, "process-a", 1 << 16);
+                SharedMemoryGroupChat processB = new SharedMemoryGroupChat(chatDirectory, "process-b", 1 << 16)) {
+            GroupChatParticipant user8 = new User(processA);
+            user8.setName("Karna");
+            processA.join(user8);
+            GroupChatParticipant user9 = new User(processB);
+            user9.setName("Drona");
+            processB.join(user9);
+            Thread.sleep(200);
+            user8.sendMessageInGroupChat("Hello from another process.");
+            Thread.sleep(200);
+        }
     }
 }
 
@@ -68,4 +961,5 @@ Steps to create a mediator pattern ->
 1. Declare the mediator interface and describe the desired communication methods and implement the concrete mediator class.
 2. Components should store a reference to the mediator object. The connection is usually established in the component’s constructor, where a mediator object is passed as an argument.
 3. Change the components’ code so that they call the mediator’s notification method instead of methods on other components.
+4. A mediator that knows every component can also deliver the message back to them, here through the participant's receive method.
 */
\ No newline at end of file
@@ -3,12 +3,21 @@ Memento is a behavioral design pattern that lets you save and restore the previo
 Refs - https://www.javatpoint.com/memento-pattern
 */
 
+import java.io.*;
+import java.math.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
 
 class EmployeeInfo {
-    private String employer;
-    private String salary;
-    private int joiningYear;
+    private final String employer;
+    private final String salary;
+    private final int joiningYear;
 
     public EmployeeInfo(String employer, String salary, int joiningYear) {
         this.employer = employer;
@@ -48,6 +57,361 @@ class EmployeeOriginator {
     public void getEmployeeInfoFromMemento(EmployeeMemento memento) {
         this.currentEmpInfo = memento.getEmployeeInfo();
     }
+
+    private EmployeeInfo lastSnapshot;
+    private int deltasSinceCheckpoint;
+
+    // records only the fields changed since the previous snapshot, and a full checkpoint after every checkpointInterval deltas.
+    public EmployeeDeltaMemento addEmployeeInfoToDeltaMemento(int checkpointInterval) {
+        EmployeeDeltaMemento memento;
+        if (this.lastSnapshot == null || this.deltasSinceCheckpoint >= checkpointInterval) {
+            memento = EmployeeDeltaMemento.checkpoint(this.currentEmpInfo);
+            this.deltasSinceCheckpoint = 0;
+        } else {
+            memento = EmployeeDeltaMemento.delta(this.lastSnapshot, this.currentEmpInfo);
+            this.deltasSinceCheckpoint++;
+        }
+        this.lastSnapshot = this.currentEmpInfo;
+        return memento;
+    }
+
+    public void getEmployeeInfoFromDeltaMemento(EmployeeDeltaMemento memento) {
+        this.currentEmpInfo = memento.applyTo(this.currentEmpInfo);
+    }
+}
+
+// concurrent originator : every state is an immutable EmployeeInfo version published through a CAS on one pointer,
+// so a memento is a single pointer read that never blocks writers. Versions no memento references are left to the GC.
+class ConcurrentEmployeeOriginator {
+    private final AtomicReference<EmployeeInfo> currentEmpInfo = new AtomicReference<>();
+
+    public void setEmployeeState(EmployeeInfo empInfo) {
+        this.currentEmpInfo.set(empInfo);
+    }
+
+    // read-modify-write without a lock, the update is retried if another writer published first.
+    public EmployeeInfo updateEmployeeState(UnaryOperator<EmployeeInfo> update) {
+        return this.currentEmpInfo.updateAndGet(update);
+    }
+
+    public boolean compareAndSetEmployeeState(EmployeeInfo expected, EmployeeInfo empInfo) {
+        return this.currentEmpInfo.compareAndSet(expected, empInfo);
+    }
+
+    public EmployeeInfo getEmployeeState() {
+        return this.currentEmpInfo.get();
+    }
+
+    public EmployeeMemento addEmployeeInfoToMemento() {
+        return new EmployeeMemento(this.currentEmpInfo.get());
+    }
+
+    public void getEmployeeInfoFromMemento(EmployeeMemento memento) {
+        this.currentEmpInfo.set(memento.getEmployeeInfo());
+    }
+}
+
+// persistent map : a hash array mapped trie of 32-way nodes. An update copies only the nodes on the path to its key
+// and shares every other node with the previous version, so each version is cheap to keep and never changes.
+final class PersistentAttributeMap {
+    private static final PersistentAttributeMap EMPTY = new PersistentAttributeMap(BitmapNode.EMPTY, 0);
+    private final Node root;
+    private final int size;
+
+    private PersistentAttributeMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    public static PersistentAttributeMap empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public String get(String key) {
+        return root.get(0, hash(key), key);
+    }
+
+    // null keys and values are rejected, so get returning null always means the key is absent.
+    public PersistentAttributeMap put(String key, String value) {
+        Objects.requireNonNull(key, "key");
+        Objects.requireNonNull(value, "value");
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(0, hash(key), key, value, added);
+        return newRoot == root ? this : new PersistentAttributeMap(newRoot, added[0] ? size + 1 : size);
+    }
+
+    public PersistentAttributeMap remove(String key) {
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? EMPTY : new PersistentAttributeMap(newRoot, size - 1);
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static final class Leaf {
+        private final int hash;
+        private final String key;
+        private final String value;
+
+        private Leaf(int hash, String key, String value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private interface Node {
+        String get(int shift, int hash, String key);
+
+        Node put(int shift, int hash, String key, String value, boolean[] added);
+
+        // null once the node is empty.
+        Node remove(int shift, int hash, String key);
+
+        // the only entry of a node holding a single leaf, so the parent can pull it up; null otherwise.
+        Leaf singleLeaf();
+    }
+
+    // each entry is a Leaf or a child Node, present where the bitmap has the bit for that 5-bit slice of the hash.
+    private static final class BitmapNode implements Node {
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+        private final int bitmap;
+        private final Object[] entries;
+
+        private BitmapNode(int bitmap, Object[] entries) {
+            this.bitmap = bitmap;
+            this.entries = entries;
+        }
+
+        private static int bit(int shift, int hash) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public String get(int shift, int hash, String key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            Object entry = entries[index(bit)];
+            if (entry instanceof Leaf) {
+                Leaf leaf = (Leaf) entry;
+                return leaf.key.equals(key) ? leaf.value : null;
+            }
+            return ((Node) entry).get(shift + 5, hash, key);
+        }
+
+        @Override
+        public Node put(int shift, int hash, String key, String value, boolean[] added) {
+            int bit = bit(shift, hash);
+            int index = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] inserted = new Object[entries.length + 1];
+                System.arraycopy(entries, 0, inserted, 0, index);
+                inserted[index] = new Leaf(hash, key, value);
+                System.arraycopy(entries, index, inserted, index + 1, entries.length - index);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, inserted);
+            }
+            Object entry = entries[index];
+            Object replacement;
+            if (entry instanceof Leaf) {
+                Leaf leaf = (Leaf) entry;
+                if (leaf.key.equals(key)) {
+                    if (leaf.value.equals(value)) {
+                        return this;
+                    }
+                    replacement = new Leaf(hash, key, value);
+                } else {
+                    replacement = merge(shift + 5, leaf, new Leaf(hash, key, value));
+                    added[0] = true;
+                }
+            } else {
+                Node child = (Node) entry;
+                replacement = child.put(shift + 5, hash, key, value, added);
+                if (replacement == child) {
+                    return this;
+                }
+            }
+            return withEntry(index, replacement);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, String key) {
+            int bit = bit(shift, hash);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int index = index(bit);
+            Object entry = entries[index];
+            if (entry instanceof Leaf) {
+                return ((Leaf) entry).key.equals(key) ? withoutEntry(bit, index) : this;
+            }
+            Node child = (Node) entry;
+            Node newChild = child.remove(shift + 5, hash, key);
+            if (newChild == child) {
+                return this;
+            }
+            if (newChild == null) {
+                return withoutEntry(bit, index);
+            }
+            Leaf leaf = newChild.singleLeaf();
+            return withEntry(index, leaf != null ? leaf : newChild);
+        }
+
+        @Override
+        public Leaf singleLeaf() {
+            return entries.length == 1 && entries[0] instanceof Leaf ? (Leaf) entries[0] : null;
+        }
+
+        private BitmapNode withEntry(int index, Object entry) {
+            Object[] copied = entries.clone();
+            copied[index] = entry;
+            return new BitmapNode(bitmap, copied);
+        }
+
+        private BitmapNode withoutEntry(int bit, int index) {
+            if (entries.length == 1) {
+                return null;
+            }
+            Object[] removed = new Object[entries.length - 1];
+            System.arraycopy(entries, 0, removed, 0, index);
+            System.arraycopy(entries, index + 1, removed, index, removed.length - index);
+            return new BitmapNode(bitmap & ~bit, removed);
+        }
+
+        // two leaves whose hashes agree up to this level get their own subtree, down to a collision node if they agree on all bits.
+        private static Object merge(int shift, Leaf first, Leaf second) {
+            if (shift >= 32) {
+                return new CollisionNode(new Leaf[] { first, second });
+            }
+            int firstBit = bit(shift, first.hash);
+            int secondBit = bit(shift, second.hash);
+            if (firstBit == secondBit) {
+                return new BitmapNode(firstBit, new Object[] { merge(shift + 5, first, second) });
+            }
+            Object[] pair = Integer.compareUnsigned(firstBit, secondBit) < 0 ? new Object[] { first, second }
+                    : new Object[] { second, first };
+            return new BitmapNode(firstBit | secondBit, pair);
+        }
+    }
+
+    // keys whose full hashes are equal, searched linearly.
+    private static final class CollisionNode implements Node {
+        private final Leaf[] leaves;
+
+        private CollisionNode(Leaf[] leaves) {
+            this.leaves = leaves;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].key.equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String get(int shift, int hash, String key) {
+            int index = indexOf(key);
+            return index < 0 ? null : leaves[index].value;
+        }
+
+        @Override
+        public Node put(int shift, int hash, String key, String value, boolean[] added) {
+            int index = indexOf(key);
+            if (index < 0) {
+                Leaf[] grown = Arrays.copyOf(leaves, leaves.length + 1);
+                grown[leaves.length] = new Leaf(hash, key, value);
+                added[0] = true;
+                return new CollisionNode(grown);
+            }
+            if (leaves[index].value.equals(value)) {
+                return this;
+            }
+            Leaf[] copied = leaves.clone();
+            copied[index] = new Leaf(hash, key, value);
+            return new CollisionNode(copied);
+        }
+
+        @Override
+        public Node remove(int shift, int hash, String key) {
+            int index = indexOf(key);
+            if (index < 0) {
+                return this;
+            }
+            if (leaves.length == 1) {
+                return null;
+            }
+            Leaf[] removed = new Leaf[leaves.length - 1];
+            System.arraycopy(leaves, 0, removed, 0, index);
+            System.arraycopy(leaves, index + 1, removed, index, removed.length - index);
+            return new CollisionNode(removed);
+        }
+
+        @Override
+        public Leaf singleLeaf() {
+            return leaves.length == 1 ? leaves[0] : null;
+        }
+    }
+}
+
+// originator with a large state : thousands of employee attributes held in a persistent map, each change makes a new version.
+class EmployeeProfileOriginator {
+    private PersistentAttributeMap attributes = PersistentAttributeMap.empty();
+
+    public void setAttribute(String key, String value) {
+        this.attributes = this.attributes.put(key, value);
+    }
+
+    public void removeAttribute(String key) {
+        this.attributes = this.attributes.remove(key);
+    }
+
+    public String getAttribute(String key) {
+        return this.attributes.get(key);
+    }
+
+    public int getAttributeCount() {
+        return this.attributes.size();
+    }
+
+    // the current version is immutable, so the memento just keeps a reference to it; nothing is copied.
+    public EmployeeProfileMemento addProfileToMemento() {
+        return new EmployeeProfileMemento(this.attributes);
+    }
+
+    public void getProfileFromMemento(EmployeeProfileMemento memento) {
+        this.attributes = memento.getAttributes();
+    }
+}
+
+// memento for the profile originator : one version of the persistent map, sharing unchanged nodes with its neighbours.
+class EmployeeProfileMemento {
+    private final PersistentAttributeMap attributes;
+
+    public EmployeeProfileMemento(PersistentAttributeMap attributes) {
+        this.attributes = attributes;
+    }
+
+    public PersistentAttributeMap getAttributes() {
+        return this.attributes;
+    }
 }
 
 // memento : the object that is going to maintain the state of originator. Its just a POJO.
@@ -63,6 +427,60 @@ class EmployeeMemento {
     }
 }
 
+// delta memento : only the fields that changed since the previous snapshot, or every field when it is a checkpoint.
+class EmployeeDeltaMemento {
+    private static final int EMPLOYER = 1;
+    private static final int SALARY = 2;
+    private static final int JOINING_YEAR = 4;
+    private static final int ALL_FIELDS = EMPLOYER | SALARY | JOINING_YEAR;
+    private final int changedFields;
+    private final String employer;
+    private final String salary;
+    private final int joiningYear;
+
+    private EmployeeDeltaMemento(int changedFields, String employer, String salary, int joiningYear) {
+        this.changedFields = changedFields;
+        this.employer = employer;
+        this.salary = salary;
+        this.joiningYear = joiningYear;
+    }
+
+    public static EmployeeDeltaMemento checkpoint(EmployeeInfo empInfo) {
+        return new EmployeeDeltaMemento(ALL_FIELDS, empInfo.getEmployer(), empInfo.getSalary(), empInfo.getJoiningYear());
+    }
+
+    public static EmployeeDeltaMemento delta(EmployeeInfo previous, EmployeeInfo current) {
+        int changedFields = 0;
+        if (!Objects.equals(previous.getEmployer(), current.getEmployer())) {
+            changedFields |= EMPLOYER;
+        }
+        if (!Objects.equals(previous.getSalary(), current.getSalary())) {
+            changedFields |= SALARY;
+        }
+        if (previous.getJoiningYear() != current.getJoiningYear()) {
+            changedFields |= JOINING_YEAR;
+        }
+        return new EmployeeDeltaMemento(changedFields,
+                (changedFields & EMPLOYER) != 0 ? current.getEmployer() : null,
+                (changedFields & SALARY) != 0 ? current.getSalary() : null,
+                current.getJoiningYear());
+    }
+
+    public boolean isCheckpoint() {
+        return this.changedFields == ALL_FIELDS;
+    }
+
+    public EmployeeInfo applyTo(EmployeeInfo base) {
+        if (isCheckpoint()) {
+            return new EmployeeInfo(this.employer, this.salary, this.joiningYear);
+        }
+        return new EmployeeInfo(
+                (changedFields & EMPLOYER) != 0 ? this.employer : base.getEmployer(),
+                (changedFields & SALARY) != 0 ? this.salary : base.getSalary(),
+                (changedFields & JOINING_YEAR) != 0 ? this.joiningYear : base.getJoiningYear());
+    }
+}
+
 // caretaker : the object that keeps track of multiple memento. Like maintaining savepoints.
 class EmployeeCaretaker {
     private List<EmployeeMemento> savedEmployeeMemento;
@@ -84,8 +502,298 @@ class EmployeeCaretaker {
     }
 }
 
+// caretaker with a memory budget : recent mementos stay on the heap, older ones are spilled to memory-mapped segment
+// files, keeping only every thinningFactor-th one; a lookup of a thinned index returns the nearest kept memento before it.
+class SpillingEmployeeCaretaker {
+    // two unsigned short lengths and the joining year around the employer and salary bytes.
+    private static final int SPILL_HEADER_BYTES = 2 * Short.BYTES + Integer.BYTES;
+    private static final int MAX_SPILLED_STRING_BYTES = 0xFFFF;
+    private final long memoryBudgetBytes;
+    private final Path spillDirectory;
+    private final int segmentBytes;
+    private final int thinningFactor;
+    private EmployeeMemento[] resident = new EmployeeMemento[16];
+    private int residentHead;
+    private int residentCount;
+    private long residentBytes;
+    private int firstResidentIndex;
+    // segment number in the high 32 bits, offset in the low 32 bits, one entry per kept spilled memento.
+    private long[] spilledLocations = new long[16];
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    public SpillingEmployeeCaretaker(long memoryBudgetBytes, Path spillDirectory, int segmentBytes, int thinningFactor) {
+        if (memoryBudgetBytes < 0) {
+            throw new IllegalArgumentException("memoryBudgetBytes must not be negative: " + memoryBudgetBytes);
+        }
+        if (segmentBytes < SPILL_HEADER_BYTES) {
+            throw new IllegalArgumentException(
+                    "segmentBytes must be at least " + SPILL_HEADER_BYTES + ": " + segmentBytes);
+        }
+        if (thinningFactor <= 0) {
+            throw new IllegalArgumentException("thinningFactor must be positive: " + thinningFactor);
+        }
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillDirectory = spillDirectory;
+        this.segmentBytes = segmentBytes;
+        this.thinningFactor = thinningFactor;
+    }
+
+    // a rough heap footprint: memento, info and two strings with their arrays.
+    private static long estimateBytes(EmployeeMemento empMemento) {
+        EmployeeInfo empInfo = empMemento.getEmployeeInfo();
+        return 160 + empInfo.getEmployer().length() + empInfo.getSalary().length();
+    }
+
+    // a memento that could not be spilled later is rejected now, before the caretaker's state changes.
+    public void addEmployeeMemento(EmployeeMemento empMemento) {
+        checkSpillable(empMemento.getEmployeeInfo());
+        if (residentCount == resident.length) {
+            EmployeeMemento[] grown = new EmployeeMemento[2 * resident.length];
+            for (int i = 0; i < residentCount; i++) {
+                grown[i] = resident[(residentHead + i) % resident.length];
+            }
+            resident = grown;
+            residentHead = 0;
+        }
+        resident[(residentHead + residentCount) % resident.length] = empMemento;
+        residentCount++;
+        residentBytes += estimateBytes(empMemento);
+        while (residentBytes > memoryBudgetBytes && residentCount > 1) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        EmployeeMemento oldest = resident[residentHead];
+        resident[residentHead] = null;
+        residentHead = (residentHead + 1) % resident.length;
+        residentCount--;
+        residentBytes -= estimateBytes(oldest);
+        if (firstResidentIndex % thinningFactor == 0) {
+            spill(firstResidentIndex / thinningFactor, oldest.getEmployeeInfo());
+        }
+        firstResidentIndex++;
+    }
+
+    // UTF-8 takes at most 3 bytes per char, so short strings skip the exact encoding.
+    private void checkSpillable(EmployeeInfo empInfo) {
+        long worstCase = 3L * Math.max(empInfo.getEmployer().length(), empInfo.getSalary().length());
+        if (worstCase <= MAX_SPILLED_STRING_BYTES && 2 * worstCase + SPILL_HEADER_BYTES <= segmentBytes) {
+            return;
+        }
+        checkSpillable(empInfo.getEmployer().getBytes(StandardCharsets.UTF_8),
+                empInfo.getSalary().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void checkSpillable(byte[] employer, byte[] salary) {
+        if (employer.length > MAX_SPILLED_STRING_BYTES || salary.length > MAX_SPILLED_STRING_BYTES) {
+            throw new IllegalArgumentException("employer and salary must each fit in " + MAX_SPILLED_STRING_BYTES
+                    + " UTF-8 bytes to be spilled");
+        }
+        if (SPILL_HEADER_BYTES + employer.length + salary.length > segmentBytes) {
+            throw new IllegalArgumentException("memento of " + (SPILL_HEADER_BYTES + employer.length + salary.length)
+                    + " bytes does not fit in a spill segment of " + segmentBytes + " bytes");
+        }
+    }
+
+    private void spill(int slot, EmployeeInfo empInfo) {
+        byte[] employer = empInfo.getEmployer().getBytes(StandardCharsets.UTF_8);
+        byte[] salary = empInfo.getSalary().getBytes(StandardCharsets.UTF_8);
+        checkSpillable(employer, salary);
+        int recordBytes = SPILL_HEADER_BYTES + employer.length + salary.length;
+        if (segments.isEmpty() || segments.get(segments.size() - 1).remaining() < recordBytes) {
+            openSegment();
+        }
+        MappedByteBuffer segment = segments.get(segments.size() - 1);
+        if (slot == spilledLocations.length) {
+            spilledLocations = Arrays.copyOf(spilledLocations, 2 * slot);
+        }
+        spilledLocations[slot] = ((long) (segments.size() - 1) << 32) | segment.position();
+        segment.putShort((short) employer.length).put(employer);
+        segment.putShort((short) salary.length).put(salary);
+        segment.putInt(empInfo.getJoiningYear());
+    }
+
+    private void openSegment() {
+        Path segmentPath = spillDirectory.resolve(String.format("mementos-%05d.seg", segments.size()));
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public EmployeeMemento getEmployeeMemento(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("memento index " + index + " out of " + size());
+        }
+        if (index >= firstResidentIndex) {
+            return resident[(residentHead + index - firstResidentIndex) % resident.length];
+        }
+        long location = spilledLocations[index / thinningFactor];
+        ByteBuffer record = segments.get((int) (location >>> 32)).duplicate();
+        record.position((int) location);
+        byte[] employer = new byte[record.getShort() & 0xFFFF];
+        record.get(employer);
+        byte[] salary = new byte[record.getShort() & 0xFFFF];
+        record.get(salary);
+        return new EmployeeMemento(new EmployeeInfo(new String(employer, StandardCharsets.UTF_8),
+                new String(salary, StandardCharsets.UTF_8), record.getInt()));
+    }
+
+    public int size() {
+        return firstResidentIndex + residentCount;
+    }
+}
+
+// snapshot store : a compact binary file of mementos. Employer names and odd salaries go in a string dictionary written
+// once, salaries like "24LPA" are stored as hundredths of a lakh and joining years as zig-zag deltas, all as varints.
+class EmployeeSnapshotStore {
+    private static final int MAGIC = 0x454D5031;
+
+    private EmployeeSnapshotStore() {
+    }
+
+    public static void save(Path path, List<EmployeeMemento> mementos) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (EmployeeMemento memento : mementos) {
+            EmployeeInfo empInfo = memento.getEmployeeInfo();
+            dictionary.putIfAbsent(empInfo.getEmployer(), dictionary.size());
+            if (parseSalary(empInfo.getSalary()) < 0) {
+                dictionary.putIfAbsent(empInfo.getSalary(), dictionary.size());
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            writeVarLong(out, dictionary.size());
+            for (String entry : dictionary.keySet()) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                writeVarLong(out, bytes.length);
+                out.write(bytes);
+            }
+            writeVarLong(out, mementos.size());
+            int previousYear = 0;
+            for (EmployeeMemento memento : mementos) {
+                EmployeeInfo empInfo = memento.getEmployeeInfo();
+                writeVarLong(out, dictionary.get(empInfo.getEmployer()));
+                long hundredths = parseSalary(empInfo.getSalary());
+                writeVarLong(out, hundredths >= 0 ? hundredths << 1 : ((long) dictionary.get(empInfo.getSalary()) << 1) | 1);
+                writeVarLong(out, zigZag(empInfo.getJoiningYear() - previousYear));
+                previousYear = empInfo.getJoiningYear();
+            }
+        }
+    }
+
+    // maps the file and decodes it in one pass, equal employer names and salaries share one String instance.
+    public static List<EmployeeMemento> restore(Path path) throws IOException {
+        MappedByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC) {
+            throw new IOException("not an employee snapshot file: " + path);
+        }
+        String[] dictionary = new String[(int) readVarLong(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.get(bytes);
+            dictionary[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int count = (int) readVarLong(in);
+        List<EmployeeMemento> mementos = new ArrayList<>(count);
+        Map<Long, String> formattedSalaries = new HashMap<>();
+        int year = 0;
+        for (int i = 0; i < count; i++) {
+            String employer = dictionary[(int) readVarLong(in)];
+            long salary = readVarLong(in);
+            year += (int) unZigZag(readVarLong(in));
+            String salaryText = (salary & 1) == 0 ? formattedSalaries.computeIfAbsent(salary >>> 1,
+                    EmployeeSnapshotStore::formatSalary) : dictionary[(int) (salary >>> 1)];
+            mementos.add(new EmployeeMemento(new EmployeeInfo(employer, salaryText, year)));
+        }
+        return mementos;
+    }
+
+    // hundredths of a lakh, or -1 when the text would not format back to exactly the same string.
+    static long parseSalary(String salary) {
+        if (!salary.endsWith("LPA")) {
+            return -1;
+        }
+        try {
+            long hundredths = new BigDecimal(salary.substring(0, salary.length() - 3)).movePointRight(2)
+                    .longValueExact();
+            return hundredths >= 0 && formatSalary(hundredths).equals(salary) ? hundredths : -1;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return -1;
+        }
+    }
+
+    static String formatSalary(long hundredths) {
+        if (hundredths % 100 == 0) {
+            return (hundredths / 100) + "LPA";
+        }
+        String fraction = String.format("%02d", hundredths % 100);
+        return (hundredths / 100) + "." + (fraction.endsWith("0") ? fraction.substring(0, 1) : fraction) + "LPA";
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0;; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
+
+// caretaker for delta mementos : restoring an index replays forward from the nearest checkpoint at or before it.
+class DeltaEmployeeCaretaker {
+    private List<EmployeeDeltaMemento> savedEmployeeMemento;
+
+    public DeltaEmployeeCaretaker() {
+        this.savedEmployeeMemento = new ArrayList<>();
+    }
+
+    public void addEmployeeMemento(EmployeeDeltaMemento empMemento) {
+        this.savedEmployeeMemento.add(empMemento);
+    }
+
+    public int size() {
+        return this.savedEmployeeMemento.size();
+    }
+
+    public void restoreEmployeeState(EmployeeOriginator originator, int index) {
+        int checkpoint = index;
+        while (!savedEmployeeMemento.get(checkpoint).isCheckpoint()) {
+            checkpoint--;
+        }
+        for (int i = checkpoint; i <= index; i++) {
+            originator.getEmployeeInfoFromDeltaMemento(savedEmployeeMemento.get(i));
+        }
+    }
+}
+
 class MementoDemo {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
         EmployeeCaretaker caretaker = new EmployeeCaretaker();
         EmployeeOriginator originator = new EmployeeOriginator();
         originator.setEmployeeState(new EmployeeInfo("TCS", "4LPA", 2020));
@@ -102,6 +810,71 @@ class MementoDemo {
             System.out.println("Employee joined " + empInfo.getEmployer() + " in Year: " + empInfo.getJoiningYear()
                     + " at the salary: " + empInfo.getSalary());
         }
+
+        DeltaEmployeeCaretaker deltaCaretaker = new DeltaEmployeeCaretaker();
+        originator.setEmployeeState(new EmployeeInfo("TCS", "4LPA", 2020));
+        deltaCaretaker.addEmployeeMemento(originator.addEmployeeInfoToDeltaMemento(2));
+        originator.setEmployeeState(new EmployeeInfo("TCS", "6LPA", 2020));
+        deltaCaretaker.addEmployeeMemento(originator.addEmployeeInfoToDeltaMemento(2));
+        originator.setEmployeeState(new EmployeeInfo("TCS", "8LPA", 2020));
+        deltaCaretaker.addEmployeeMemento(originator.addEmployeeInfoToDeltaMemento(2));
+        originator.setEmployeeState(new EmployeeInfo("Amazon", "24LPA", 2021));
+        deltaCaretaker.addEmployeeMemento(originator.addEmployeeInfoToDeltaMemento(2));
+        for (int i = 0; i < deltaCaretaker.size(); i++) {
+            deltaCaretaker.restoreEmployeeState(originator, i);
+            EmployeeInfo empInfo = originator.getEmployeeState();
+            System.out.println("Restored from deltas: " + empInfo.getEmployer() + ", " + empInfo.getSalary() + ", "
+                    + empInfo.getJoiningYear());
+        }
+
+        SpillingEmployeeCaretaker spillingCaretaker = new SpillingEmployeeCaretaker(1024,
+                Files.createTempDirectory("memento-spill"), 1 << 20, 1);
+        for (int year = 2000; year < 2025; year++) {
+            originator.setEmployeeState(new EmployeeInfo("Infosys", (year - 1995) + "LPA", year));
+            spillingCaretaker.addEmployeeMemento(originator.addEmployeeInfoToMemento());
+        }
+        EmployeeInfo spilledInfo = spillingCaretaker.getEmployeeMemento(0).getEmployeeInfo();
+        System.out.println("Spilled memento 0: " + spilledInfo.getEmployer() + " in Year: " + spilledInfo.getJoiningYear()
+                + " at the salary: " + spilledInfo.getSalary());
+
+        Path snapshotFile = Files.createTempFile("mementos", ".snap");
+        EmployeeSnapshotStore.save(snapshotFile, caretaker.getSavedEmployeeMementos());
+        EmployeeCaretaker restoredCaretaker = new EmployeeCaretaker();
+        for (EmployeeMemento empMemento : EmployeeSnapshotStore.restore(snapshotFile)) {
+            restoredCaretaker.addEmployeeMemento(empMemento);
+        }
+        System.out.println("Restored " + restoredCaretaker.getSavedEmployeeMementos().size() + " mementos from "
+                + Files.size(snapshotFile) + " bytes, last salary: " + restoredCaretaker.getEmployeeMemento(2)
+                        .getEmployeeInfo().getSalary());
+
+        ConcurrentEmployeeOriginator concurrentOriginator = new ConcurrentEmployeeOriginator();
+        concurrentOriginator.setEmployeeState(new EmployeeInfo("Flipkart", "10LPA", 2022));
+        ExecutorService writers = Executors.newFixedThreadPool(2);
+        for (int w = 0; w < 2; w++) {
+            writers.execute(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    concurrentOriginator.updateEmployeeState(empInfo -> new EmployeeInfo(empInfo.getEmployer(),
+                            (Integer.parseInt(empInfo.getSalary().replace("LPA", "")) + 1) + "LPA",
+                            empInfo.getJoiningYear()));
+                }
+            });
+        }
+        EmployeeMemento midwayMemento = concurrentOriginator.addEmployeeInfoToMemento();
+        writers.shutdown();
+        writers.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("Snapshot while writing: " + midwayMemento.getEmployeeInfo().getSalary() + ", final: "
+                + concurrentOriginator.getEmployeeState().getSalary());
+
+        EmployeeProfileOriginator profileOriginator = new EmployeeProfileOriginator();
+        for (int i = 0; i < 5000; i++) {
+            profileOriginator.setAttribute("skill-" + i, "level-" + (i % 5));
+        }
+        EmployeeProfileMemento beforePromotion = profileOriginator.addProfileToMemento();
+        profileOriginator.setAttribute("designation", "Senior Engineer");
+        profileOriginator.removeAttribute("skill-0");
+        profileOriginator.getProfileFromMemento(beforePromotion);
+        System.out.println("Profile restored with " + profileOriginator.getAttributeCount() + " attributes, designation: "
+                + profileOriginator.getAttribute("designation") + ", skill-0: " + profileOriginator.getAttribute("skill-0"));
     }
 }
 
@@ -112,4 +885,6 @@ Steps to create memento design pattern ->
 3. Make the memento class immutable. A memento should accept the data just once, via the constructor. The class should have no setters.
 4. Add methods in originator that uses state and saves it to memento and one that restores state from memento.
 5. Create a caretaker class that stores all the mementos, it provides a method to add the memento and get it from the existing list.
+6. When states change a little at a time, mementos can hold only the changed fields, with a full checkpoint every few snapshots to restore from.
+7. For large states, keep the state in an immutable persistent structure; a memento then just references the current version.
 */
\ No newline at end of file